@@ -0,0 +1,125 @@
+package de.intranda.goobi.ocr.tei;
+
+import org.apache.commons.lang.Entities;
+
+/**
+ * Resolves html entities in a single pass over the text. Characters which would change the xml markup if they were written literally (
+ * <code>&amp;</code>, <code>&lt;</code> and <code>&gt;</code>) are never decoded but written as xml entity, all other html entities are replaced
+ * by the character they stand for.
+ *
+ */
+public final class EntityDecoder {
+
+    /** longest entity which is resolved, the longest html 4 entity name has eight characters */
+    private static final int MAX_ENTITY_LENGTH = 32;
+
+    private EntityDecoder() {
+    }
+
+    /**
+     * Resolve all html entities and escape every other ampersand, so the result can be parsed as xml
+     *
+     * @param text
+     * @return the xml text
+     */
+    public static String toXml(String text) {
+        return decode(text, true);
+    }
+
+    /**
+     * Resolve all html entities. Ampersands which don't start a known entity are kept unchanged
+     *
+     * @param text
+     * @return the decoded text
+     */
+    public static String decodeHtml(String text) {
+        return decode(text, false);
+    }
+
+    private static String decode(String text, boolean escapeAmpersands) {
+        int ampersand = text.indexOf('&');
+        if (ampersand < 0) {
+            return text;
+        }
+        StringBuilder result = new StringBuilder(text.length() + 16);
+        int position = 0;
+        while (ampersand >= 0) {
+            result.append(text, position, ampersand);
+            int end = findEntityEnd(text, ampersand);
+            int codePoint = end < 0 ? -1 : resolve(text, ampersand + 1, end);
+            if (codePoint < 0) {
+                // not an entity, continue behind the ampersand
+                result.append(escapeAmpersands ? "&amp;" : "&");
+                position = ampersand + 1;
+            } else {
+                appendXmlSafe(result, codePoint);
+                position = end + 1;
+            }
+            ampersand = text.indexOf('&', position);
+        }
+        result.append(text, position, text.length());
+        return result.toString();
+    }
+
+    /**
+     * @return the index of the semicolon which ends the entity starting at the given ampersand, or -1 if there is none
+     */
+    private static int findEntityEnd(String text, int ampersand) {
+        int limit = Math.min(text.length(), ampersand + MAX_ENTITY_LENGTH + 2);
+        for (int i = ampersand + 1; i < limit; i++) {
+            char c = text.charAt(i);
+            if (c == ';') {
+                return i > ampersand + 1 ? i : -1;
+            } else if (c == '&' || Character.isWhitespace(c) || c == '<') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the code point of the entity between start and end, or -1 if it is unknown
+     */
+    private static int resolve(String text, int start, int end) {
+        if (text.charAt(start) != '#') {
+            return Entities.HTML40.entityValue(text.substring(start, end));
+        }
+        int radix = 10;
+        int digits = start + 1;
+        if (digits < end && (text.charAt(digits) == 'x' || text.charAt(digits) == 'X')) {
+            radix = 16;
+            digits++;
+        }
+        if (digits == end) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = digits; i < end; i++) {
+            int digit = Character.digit(text.charAt(i), radix);
+            if (digit < 0) {
+                return -1;
+            }
+            value = value * radix + digit;
+            if (value > Character.MAX_CODE_POINT) {
+                return -1;
+            }
+        }
+        return value;
+    }
+
+    private static void appendXmlSafe(StringBuilder result, int codePoint) {
+        switch (codePoint) {
+            case '&':
+                result.append("&amp;");
+                break;
+            case '<':
+                result.append("&lt;");
+                break;
+            case '>':
+                result.append("&gt;");
+                break;
+            default:
+                result.appendCodePoint(codePoint);
+        }
+    }
+}
@@ -2,7 +2,26 @@ package de.intranda.goobi.ocr.tei;
 
 public interface Footnote {
 
+    /** name of the group which captures the footnote number in {@link #getNoteRegex()} */
+    public static final String NUMBER_GROUP = "number";
+
     public String getReferenceRegex();
     public String getNoteRegex(String number);
-        
+
+    /**
+     * @return a regular expression matching the notes of all numbers. If notes are numbered, the number is captured in the group named
+     *         {@link #NUMBER_GROUP}
+     */
+    public String getNoteRegex();
+
+    /**
+     * @return the group of {@link #getNoteRegex()} which contains the text of the note
+     */
+    public int getNoteTextGroup();
+
+    /**
+     * @return true if {@link #getNoteRegex()} captures the number of the note
+     */
+    public boolean isNumbered();
+
 }
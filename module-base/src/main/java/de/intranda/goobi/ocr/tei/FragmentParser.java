@@ -0,0 +1,212 @@
+package de.intranda.goobi.ocr.tei;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.jdom2.JDOMException;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.DefaultHandler2;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Parses xml fragments and passes their content directly to a {@link XMLStreamWriter}, without building a document for each fragment. The
+ * underlying parser is created once and reused for all fragments, so an instance must not be shared between threads.
+ *
+ */
+class FragmentParser {
+
+    private final XMLReader reader;
+    private final FragmentHandler handler;
+
+    /**
+     * @param out receives the content of all parsed fragments
+     * @throws IOException if no parser can be created
+     */
+    FragmentParser(XMLStreamWriter out) throws IOException {
+        handler = new FragmentHandler(out);
+        try {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            reader = factory.newSAXParser().getXMLReader();
+            reader.setContentHandler(handler);
+            reader.setErrorHandler(handler);
+            reader.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Cannot create xml parser", e);
+        }
+    }
+
+    /**
+     * Parse the given fragment and write its content
+     *
+     * @param fragment xml content without root element
+     * @throws JDOMException if the fragment is not well formed
+     * @throws IOException
+     */
+    void parse(String fragment) throws JDOMException, IOException {
+        try {
+            reader.parse(new InputSource(new StringReader("<div>" + fragment + "</div>")));
+        } catch (SAXException e) {
+            if (e.getException() instanceof XMLStreamException) {
+                throw new IOException("Cannot write xml fragment", e.getException());
+            }
+            throw new JDOMException("Error parsing xml fragment: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Forwards all events below the root element to the writer. Start tags are held back until the next event, so that elements without content
+     * can be written as empty elements
+     */
+    private static class FragmentHandler extends DefaultHandler2 {
+        private final XMLStreamWriter out;
+        private int depth;
+
+        private final List<String[]> namespaces = new ArrayList<>();
+        private String[] pendingElement;
+        private final List<String[]> pendingNamespaces = new ArrayList<>();
+        private final AttributesImpl pendingAttributes = new AttributesImpl();
+
+        private FragmentHandler(XMLStreamWriter out) {
+            this.out = out;
+        }
+
+        @Override
+        public void startDocument() {
+            depth = 0;
+            pendingElement = null;
+            namespaces.clear();
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) {
+            namespaces.add(new String[] { prefix, uri });
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+            writePendingElement(false);
+            depth++;
+            if (depth == 1) {
+                // the artificial root element
+                namespaces.clear();
+                return;
+            }
+            pendingElement = new String[] { getPrefix(qName), localName, uri };
+            pendingNamespaces.clear();
+            pendingNamespaces.addAll(namespaces);
+            namespaces.clear();
+            pendingAttributes.setAttributes(attributes);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            depth--;
+            if (depth == 0) {
+                writePendingElement(false);
+                return;
+            }
+            try {
+                if (pendingElement != null) {
+                    writePendingElement(true);
+                } else {
+                    out.writeEndElement();
+                }
+            } catch (XMLStreamException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            writePendingElement(false);
+            try {
+                out.writeCharacters(ch, start, length);
+            } catch (XMLStreamException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+            characters(ch, start, length);
+        }
+
+        @Override
+        public void processingInstruction(String target, String data) throws SAXException {
+            writePendingElement(false);
+            try {
+                out.writeProcessingInstruction(target, data);
+            } catch (XMLStreamException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        @Override
+        public void comment(char[] ch, int start, int length) throws SAXException {
+            if (depth == 0) {
+                return;
+            }
+            writePendingElement(false);
+            try {
+                out.writeComment(new String(ch, start, length));
+            } catch (XMLStreamException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        private void writePendingElement(boolean empty) throws SAXException {
+            if (pendingElement == null) {
+                return;
+            }
+            String prefix = pendingElement[0];
+            String localName = pendingElement[1];
+            String uri = pendingElement[2];
+            pendingElement = null;
+            try {
+                if (empty && uri.isEmpty()) {
+                    out.writeEmptyElement(localName);
+                } else if (empty) {
+                    out.writeEmptyElement(prefix, localName, uri);
+                } else if (uri.isEmpty()) {
+                    out.writeStartElement(localName);
+                } else {
+                    out.writeStartElement(prefix, localName, uri);
+                }
+                for (String[] namespace : pendingNamespaces) {
+                    if (namespace[0].isEmpty()) {
+                        out.writeDefaultNamespace(namespace[1]);
+                    } else {
+                        out.writeNamespace(namespace[0], namespace[1]);
+                    }
+                }
+                for (int i = 0; i < pendingAttributes.getLength(); i++) {
+                    String attributeUri = pendingAttributes.getURI(i);
+                    if (attributeUri.isEmpty()) {
+                        out.writeAttribute(pendingAttributes.getLocalName(i), pendingAttributes.getValue(i));
+                    } else {
+                        out.writeAttribute(getPrefix(pendingAttributes.getQName(i)), attributeUri, pendingAttributes.getLocalName(i),
+                                pendingAttributes.getValue(i));
+                    }
+                }
+            } catch (XMLStreamException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        private static String getPrefix(String qName) {
+            int colon = qName.indexOf(':');
+            return colon < 0 ? "" : qName.substring(0, colon);
+        }
+    }
+}
@@ -1,45 +1,102 @@
 package de.intranda.goobi.ocr.tei;
 
-import java.io.IOException;
-import java.io.StringWriter;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.Map;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
+import de.intranda.goobi.utils.PatternCache;
+import de.intranda.goobi.utils.RegexTimeoutException;
+import de.intranda.goobi.utils.TextReplacement;
+import de.intranda.goobi.utils.TimeLimitedCharSequence;
+
 public class HtmlToTEIConvert {
 
     private static final Logger logger = Logger.getLogger(HtmlToTEIConvert.class);
 
     private static final int HEADER_HIERARCHY_DEPTH = 9;
+    private static final String COMMENT_REGEX = "<!--[\\w\\W]*?-->";
     private static final String HEADER_DIV_REGEX = "(<hx[\\S\\s]*?)(?=((<h\\d)|$))";
+    private static final InlineMarkupRewriter INLINE_MARKUP = new InlineMarkupRewriter()
+            .addRule("strong", "<strong>", "<hi rend=\"bold\">", "</hi>")
+            .addRule("em", "<em>", "<hi rend=\"italic\">", "</hi>")
+            .addRule("span", "<span style=\"text-decoration: underline;\">", "<hi rend=\"underline\">", "</hi>");
 
     private ConverterMode mode;
+    private Engine engine;
+    /** time limit of one conversion with the regex engine, null for no limit */
+    private Duration timeout;
+    /** deadline of the current conversion in the time base of {@link System#nanoTime()} */
+    private long deadline;
+    private int fallbackCount;
 
     public HtmlToTEIConvert(ConverterMode mode) {
+        this(mode, Engine.regex);
+    }
+
+    public HtmlToTEIConvert(ConverterMode mode, Engine engine) {
         this.mode = mode;
+        this.engine = engine;
+    }
+
+    /**
+     * Limit the time a conversion with the regex engine may take. If the limit is exceeded, the text is converted with the linear token engine
+     * instead, see {@link #getFallbackCount()}
+     * 
+     * @param timeout the time limit, null for no limit
+     * @return this converter
+     */
+    public HtmlToTEIConvert setTimeout(Duration timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * @return the number of conversions which exceeded the time limit and were converted with the token engine
+     */
+    public int getFallbackCount() {
+        return fallbackCount;
     }
 
     public String convert(String text) {
+        if (Engine.token.equals(engine)) {
+            return new HtmlToTEITokenConverter(mode).convert(text);
+        }
+        if (timeout != null) {
+            deadline = System.nanoTime() + timeout.toNanos();
+        }
+        try {
+            return convertWithRegex(text);
+        } catch (RegexTimeoutException e) {
+            logger.warn(e.getMessage() + ", converting the text with the token engine instead");
+            fallbackCount++;
+            return new HtmlToTEITokenConverter(mode).convert(text);
+        }
+    }
+
+    private String convertWithRegex(String text) {
         text = text.replace("&nbsp;", "");
         text = removeUrlEncoding(text);
-        text = HtmlToTEIConvert.removeComments(text);
+        text = replaceAll(limit(text), COMMENT_REGEX, "");
         text = "<div xmlns=\"http://www.tei-c.org/ns/1.0\">" + text + "</div>";
 
         for (int i = HEADER_HIERARCHY_DEPTH; i > 0; i--) {
             String regex = HEADER_DIV_REGEX.replace("x", Integer.toString(i));
-            for (MatchResult r : findRegexMatches(regex, text)) {
+            for (MatchResult r : findRegexMatches(regex, limit(text))) {
                 String group = r.group();
                 text = text.replace(r.group(), "<div>" + r.group() + "</div>");
             }
             // replace header
-            for (MatchResult r : findRegexMatches("<h" + i + ".*?>(.*?)</h" + i + ">", text)) {
+            for (MatchResult r : findRegexMatches("<h" + i + ".*?>(.*?)</h" + i + ">", limit(text))) {
                 text = text.replace(r.group(), "<head>" + r.group(1) + "</head>");
             }
         }
@@ -49,39 +106,11 @@ public class HtmlToTEIConvert {
                 .replace("<p/>", "")
                 .replace("<p></p>", "");
 
-        // replace bold
-        boolean found = false;
-        do {
-            found = false;
-            for (MatchResult r : findRegexMatches("<strong>((.*?(<strong>.*?<\\/strong>)?.*?)*?)</strong>", text)) {
-                String group = r.group();
-                text = text.replace(r.group(), "<hi rend=\"bold\">" + r.group(1) + "</hi>");
-                found = true;
-            }
-        } while (found);
-
-        // replace italic
-        do {
-            found = false;
-            for (MatchResult r : findRegexMatches("<em>((.*?(<em>.*?<\\/em>)?.*?)*?)</em>", text)) {
-                text = text.replace(r.group(), "<hi rend=\"italic\">" + r.group(1) + "</hi>");
-                found = true;
-            }
-        } while (found);
-
-        // replace underline
-        do {
-            found = false;
-            for (MatchResult r : findRegexMatches(
-                    "<span style=\"text-decoration: underline;\">((.*?(<span style=\"text-decoration: underline;\">.*?<\\/span>)?.*?)*?)</span>",
-                    text)) {
-                text = text.replace(r.group(), "<hi rend=\"underline\">" + r.group(1) + "</hi>");
-                found = true;
-            }
-        } while (found);
+        // replace bold, italic and underline
+        text = INLINE_MARKUP.rewrite(text);
 
         // replace anm
-        for (MatchResult r : findRegexMatches("\\[anm\\](.*?)\\[/anm\\]", text)) {
+        for (MatchResult r : findRegexMatches("\\[anm\\](.*?)\\[/anm\\]", limit(text))) {
             text = text.replace(r.group(), "<note type=\"editorial\"><p>" + r.group(1) + "</p></note>");
         }
 
@@ -90,7 +119,7 @@ public class HtmlToTEIConvert {
         text = replaceFootnotes(text, footnoteTypes);
 
         // tables
-        text = text.replaceAll("<table.*?>", "<table>")
+        text = replaceAll(limit(text), "<table.*?>", "<table>")
                 .replace("<tbody>", "")
                 .replace("</tbody>", "");
         text = text.replace("<caption>", "<head>")
@@ -99,48 +128,48 @@ public class HtmlToTEIConvert {
                 .replace("</tbody>", "");
         text = text.replace("<thead>", "")
                 .replace("</thead>", "");
-        text = text.replaceAll("<tr.*?>", "<row>")
+        text = replaceAll(limit(text), "<tr.*?>", "<row>")
                 .replace("<tr>", "<row>")
                 .replace("</tr>", "</row>");
-        text = text.replaceAll("<td.*?>", "<cell>")
+        text = replaceAll(limit(text), "<td.*?>", "<cell>")
                 .replace("</td>", "</cell>");
 
         // lists
         if (mode.equals(ConverterMode.annotation)) {
-            text = text.replaceAll("<ul.*?>", "<list rend=\"bulleted\">")
+            text = replaceAll(limit(text), "<ul.*?>", "<list rend=\"bulleted\">")
                     .replace("</ul>", "</list>");
             text = text.replace("<li>", "<item>")
                     .replace("</li>", "</item>");
-            text = text.replaceAll("<ol.*?style=\".*?-alpha.*?>", "<list rend=\"alphabetical\">")
+            text = replaceAll(limit(text), "<ol.*?style=\".*?-alpha.*?>", "<list rend=\"alphabetical\">")
                     .replace("</ol>", "</list>");
-            text = text.replaceAll("<ol.*?style=\".*?-greek.*?>", "<list rend=\"alphabetical\">")
+            text = replaceAll(limit(text), "<ol.*?style=\".*?-greek.*?>", "<list rend=\"alphabetical\">")
                     .replace("</ol>", "</list>");
-            text = text.replaceAll("<ol.*?>", "<list rend=\"numbered\">")
+            text = replaceAll(limit(text), "<ol.*?>", "<list rend=\"numbered\">")
                     .replace("</ol>", "</list>");
         } else {
-            text = text.replaceAll("<ul.*?>", "<list>")
+            text = replaceAll(limit(text), "<ul.*?>", "<list>")
                     .replace("</ul>", "</list>");
             text = text.replace("<li>", "<item>")
                     .replace("</li>", "</item>");
             //			text = text.replace("<ol>", "<list>").replace("</ol>", "</list>");
-            text = text.replaceAll("<ol.*?>", "<list>")
+            text = replaceAll(limit(text), "<ol.*?>", "<list>")
                     .replace("</ol>", "</list>");
         }
 
         // images
         // <img src="none" alt="Bildbeschriftung" />
-        for (MatchResult r : findRegexMatches("<img src=\"(.*?)\" alt=\"(.*?)\" />", text)) {
+        for (MatchResult r : findRegexMatches("<img src=\"(.*?)\" alt=\"(.*?)\" />", limit(text))) {
             text = text.replace(r.group(), "<figure><head>" + r.group(2) + "</head><graphic url=\"" + r.group(1) + "\"/></figure>");
         }
 
         // Blockquote (old)
-        for (MatchResult r : findRegexMatches("<blockquote>\\s*<p>\\[Q=(.*?)\\](.*?)\\[/Q\\]</p>\\s*</blockquote>", text)) {
+        for (MatchResult r : findRegexMatches("<blockquote>\\s*<p>\\[Q=(.*?)\\](.*?)\\[/Q\\]</p>\\s*</blockquote>", limit(text))) {
             text = text.replace(r.group(), "<cit><q source=\"#" + r.group(1) + "\">" + r.group(2) + "</q></cit>");
         }
 
         // Blockquote (with reference)
         int quoteRefCounter = 1;
-        for (MatchResult r : findRegexMatches("<blockquote\\s+cite=\"(.*?)\">\\s*([\\s\\S]*?)\\s*<\\/blockquote>", text)) {
+        for (MatchResult r : findRegexMatches("<blockquote\\s+cite=\"(.*?)\">\\s*([\\s\\S]*?)\\s*<\\/blockquote>", limit(text))) {
             StringBuilder replacement = new StringBuilder();
             replacement.append("<cit> ")
                     .append(mode.equals(ConverterMode.resource) ? "<q" : "<quote")
@@ -163,7 +192,7 @@ public class HtmlToTEIConvert {
 
         // Blockquote (no reference)
         //		for (MatchResult r : findRegexMatches("<blockquote>\\s*(<p>)*([\\s\\S]*?)(<\\/p>)*\\s*<\\/blockquote>",
-        for (MatchResult r : findRegexMatches("<blockquote>\\s*([\\s\\S]*?)\\s*<\\/blockquote>", text)) {
+        for (MatchResult r : findRegexMatches("<blockquote>\\s*([\\s\\S]*?)\\s*<\\/blockquote>", limit(text))) {
             StringBuilder replacement = new StringBuilder();
             replacement.append("<cit>")
                     .append(mode.equals(ConverterMode.resource) ? "<q>" : "<quote source=\"#\">")
@@ -175,12 +204,12 @@ public class HtmlToTEIConvert {
             text = text.replace(r.group(), replacement.toString());
         }
 
-        for (MatchResult r : findRegexMatches("\\[Q=(.*?)\\](.*?)\\[/Q\\]", text)) {
+        for (MatchResult r : findRegexMatches("\\[Q=(.*?)\\](.*?)\\[/Q\\]", limit(text))) {
             text = text.replace(r.group(), "<q source=\"#" + r.group(1) + "\">" + r.group(2) + "</q>");
         }
 
         //q with cite
-        for (MatchResult r : findRegexMatches("<q\\s+cite=\"(.*?)\">([\\s\\S]*?)<\\/q>", text)) {
+        for (MatchResult r : findRegexMatches("<q\\s+cite=\"(.*?)\">([\\s\\S]*?)<\\/q>", limit(text))) {
             if (mode.equals(ConverterMode.annotation)) {
                 text = text.replace(r.group(),
                         "<quote source=\"#quoteref" + quoteRefCounter + "\" type=\"direct\">" + r.group(2) + "</quote>"
@@ -195,11 +224,11 @@ public class HtmlToTEIConvert {
             quoteRefCounter++;
         }
 
-        for (MatchResult r : findRegexMatches("\\[q\\](.*?)\\[/q\\]", text)) {
+        for (MatchResult r : findRegexMatches("\\[q\\](.*?)\\[/q\\]", limit(text))) {
             text = text.replace(r.group(), "<q>" + r.group(1) + "</q>");
         }
 
-        for (MatchResult r : findRegexMatches("<a.*?href=\"(.*?)\".*?>(.*?)<\\/a>", text)) {
+        for (MatchResult r : findRegexMatches("<a.*?href=\"(.*?)\".*?>(.*?)<\\/a>", limit(text))) {
             if (ConverterMode.annotation.equals(mode)) {
                 text = text.replace(r.group(), "<ref target=\"" + r.group(1) + "\">" + r.group(2) + "</ref>");
             } else {
@@ -207,7 +236,7 @@ public class HtmlToTEIConvert {
             }
         }
 
-        for (MatchResult r : findRegexMatches("<a\\s*(\\w+=\".*\"\\s*)*>(.*?)</a>", text)) {
+        for (MatchResult r : findRegexMatches("<a\\s*(\\w+=\".*\"\\s*)*>(.*?)</a>", limit(text))) {
             text = text.replace(r.group(), r.group(2));
         }
 
@@ -228,105 +257,175 @@ public class HtmlToTEIConvert {
 
         text = text.replace("<br />", "");
         text = text.replace("<p />", "");
-        text = text.replaceAll("<div[^>]*/>", "");
+        text = replaceAll(limit(text), "<div[^>]*/>", "");
 
         return text.trim();
     }
 
     /**
+     * Replace footnote references by the text of their notes and remove the notes. For each footnote type, the notes are indexed in one scan of
+     * the text and the references are resolved in a second one, so each reference is replaced at its own position. References with a number
+     * are resolved to the note with that number, references without one to the notes in their order
+     * 
      * @param text
      * @param footnoteTypes
-     * @return
+     * @return the text with resolved footnotes
      */
     protected String replaceFootnotes(String text, List<Footnote> footnoteTypes) {
-        int index = 1;
         for (Footnote footnote : footnoteTypes) {
-            String regex = footnote.getReferenceRegex();
-            for (MatchResult r : findRegexMatches(regex, text)) {
-                try {
-                    String number = r.groupCount() > 1 ? r.group(2) : Integer.toString(index); 
-                    if (StringUtils.isNotBlank(number)) {
-                        String noteRegex = footnote.getNoteRegex(number);
-                        MatchResult result = findRegexMatches(noteRegex, text).iterator()
-                                .next();
-                        String note = result.group(1);
-                        text = text.replace(result.group(), "");
-                        if (!note.trim()
-                                .startsWith("<p>")) {
-                            note = "<p>" + note;
-                        }
-                        if (!note.trim()
-                                .endsWith("</p>")) {
-                            note = note + "</p>";
-                        }
-                        String reference = r.group(1);
-                        text = text.replace(reference, " <note>" + note + "</note> ");
-                    }
-                } catch (NoSuchElementException | NullPointerException e) {
-                    logger.error("Cannot find footnote to reference " + r.group() + ". Removing reference");
-                    text = text.replace(r.group(1), " ");
-                }
-            }
-            index++;
+            text = replaceFootnotes(text, footnote);
         }
         return text;
     }
 
+    private String replaceFootnotes(String text, Footnote footnote) {
+        Map<String, FootnoteMatch> numberedNotes = new HashMap<>();
+        Deque<FootnoteMatch> notes = new ArrayDeque<>();
+        Matcher noteMatcher = PatternCache.compile(footnote.getNoteRegex())
+                .matcher(limit(text));
+        while (noteMatcher.find()) {
+            FootnoteMatch note = new FootnoteMatch(noteMatcher.start(), noteMatcher.end(),
+                    StringUtils.defaultString(noteMatcher.group(footnote.getNoteTextGroup())));
+            notes.add(note);
+            if (footnote.isNumbered()) {
+                // like a search for the number, the first note with that number is used
+                numberedNotes.putIfAbsent(noteMatcher.group(Footnote.NUMBER_GROUP), note);
+            }
+        }
+
+        List<TextReplacement> replacements = new ArrayList<>();
+        for (MatchResult r : findRegexMatches(footnote.getReferenceRegex(), limit(text))) {
+            String number = r.groupCount() > 1 ? r.group(2) : null;
+            if (number != null && StringUtils.isBlank(number)) {
+                continue;
+            }
+            FootnoteMatch note = footnote.isNumbered() && number != null ? numberedNotes.remove(number) : nextUnusedNote(notes);
+            if (note != null && note.used) {
+                note = null;
+            }
+            if (note == null) {
+                logger.error("Cannot find footnote to reference " + r.group() + ". Removing reference");
+                replacements.add(new TextReplacement(r.start(1), r.end(1), " "));
+            } else if (note.start <= r.start(1) && r.end(1) <= note.end) {
+                // the reference is part of the note, so the note is replaced in place
+                note.used = true;
+                replacements.add(new TextReplacement(note.start, note.end, " <note>" + createNoteBody(note.text) + "</note> "));
+            } else {
+                note.used = true;
+                replacements.add(new TextReplacement(note.start, note.end, ""));
+                replacements.add(new TextReplacement(r.start(1), r.end(1), " <note>" + createNoteBody(note.text) + "</note> "));
+            }
+        }
+        if (replacements.isEmpty()) {
+            return text;
+        }
+        // a note is applied before a reference within it
+        replacements.sort(Comparator.comparingInt(TextReplacement::getStart)
+                .thenComparing(Comparator.comparingInt(TextReplacement::getEnd)
+                        .reversed()));
+        StringBuilder result = new StringBuilder(text.length());
+        int position = 0;
+        for (TextReplacement replacement : replacements) {
+            if (replacement.getStart() < position) {
+                // a reference within a removed note is removed with it
+                continue;
+            }
+            result.append(text, position, replacement.getStart())
+                    .append(replacement.getReplacement());
+            position = replacement.getEnd();
+        }
+        result.append(text, position, text.length());
+        return result.toString();
+    }
+
+    private static FootnoteMatch nextUnusedNote(Deque<FootnoteMatch> notes) {
+        while (!notes.isEmpty() && notes.peek().used) {
+            notes.poll();
+        }
+        return notes.poll();
+    }
+
+    /**
+     * @param note text of a footnote
+     * @return the text enclosed in a paragraph, unless it already is
+     */
+    static String createNoteBody(String note) {
+        if (!note.trim()
+                .startsWith("<p>")) {
+            note = "<p>" + note;
+        }
+        if (!note.trim()
+                .endsWith("</p>")) {
+            note = note + "</p>";
+        }
+        return note;
+    }
+
     public static String removeComments(String text) {
-        text = text.replaceAll("<!--[\\w\\W]*?-->", "");
+        text = replaceAll(text, COMMENT_REGEX, "");
         return text;
     }
 
     /**
+     * Resolve all html entities except <code>&amp;amp;</code>, <code>&amp;lt;</code> and <code>&amp;gt;</code>
+     * 
      * @param text
      * @return
-     * @throws IOException
      */
     public static String removeUrlEncoding(String text) {
-        StringWriter writer = new StringWriter();
-        try {
-            text = text.replace("&amp;", "&amp;amp;")
-                    .replace("&gt;", "&amp;gt;")
-                    .replace("&lt;", "&amp;lt;");
-            StringEscapeUtils.unescapeHtml(writer, text);
-            //            text = writer.toString();
-            //            writer = new StringWriter();
-            //            StringEscapeUtils.escapeXml(writer, text);
-            return writer.toString();
-        } catch (IOException e) {
-            logger.error(e.toString(), e);
-        }
-        return text;
+        return EntityDecoder.decodeHtml(text);
+    }
+
+    /**
+     * @return the text which aborts regular expressions at the deadline of the current conversion if there is a time limit
+     */
+    private CharSequence limit(String text) {
+        return timeout == null ? text : new TimeLimitedCharSequence(text, deadline);
+    }
 
-        //		text = text.replace("&amp;", "&");
-        //		text = text.replace("&Auml;", "Ä");
-        //		text = text.replace("&Ouml;", "Ö");
-        //		text = text.replace("&Uuml;", "Ü");
-        //
-        //		text = text.replace("&auml;", "ä");
-        //		text = text.replace("&ouml;", "ö");
-        //		text = text.replace("&uuml;", "ü");
-        //
-        //		text = text.replace("&szlig;", "ß");
-        //		text = text.replace("&nbsp;", "");
-        //		text = text.replace("&shy;", "-");
-        //		return text;
+    private static String replaceAll(CharSequence text, String regex, String replacement) {
+        return PatternCache.compile(regex).matcher(text).replaceAll(replacement);
     }
 
     public static Iterable<MatchResult> findRegexMatches(String pattern, CharSequence s) {
         List<MatchResult> results = new ArrayList<MatchResult>();
-        for (Matcher m = Pattern.compile(pattern)
+        for (Matcher m = PatternCache.compile(pattern)
                 .matcher(s); m.find();) {
             results.add(m.toMatchResult());
         }
         return results;
     }
 
+    /**
+     * Position and text of a footnote in the text which is converted
+     */
+    private static class FootnoteMatch {
+        private final int start;
+        private final int end;
+        private final String text;
+        private boolean used;
+
+        private FootnoteMatch(int start, int end, String text) {
+            this.start = start;
+            this.end = end;
+            this.text = text;
+        }
+    }
+
     public static enum ConverterMode {
         annotation,
         resource
     }
 
+    /**
+     * Implementation of {@link HtmlToTEIConvert#convert(String)}: <code>regex</code> applies one regular expression after the other to the whole
+     * text, <code>token</code> converts the text in a single pass with {@link HtmlToTEITokenConverter}
+     */
+    public static enum Engine {
+        regex,
+        token
+    }
+
     public List<Footnote> getAllFootnoteTypes() {
         List<Footnote> list = new ArrayList<>();
         list.add(new SimpleFootnote("<span title=\"[^>]*\">([^<]*)<\\/span>", "<span title=\"([^>]*)\">[^<]*<\\/span>"));
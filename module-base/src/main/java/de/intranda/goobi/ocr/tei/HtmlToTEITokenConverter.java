@@ -0,0 +1,570 @@
+package de.intranda.goobi.ocr.tei;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import de.intranda.goobi.ocr.tei.HtmlToTEIConvert.ConverterMode;
+
+/**
+ * Converts html to TEI in one linear pass. The text is split into tags, bracket markers like <code>[anm]</code> and text, and each tag is
+ * rewritten through a rule table as soon as it is read. Elements whose closing tag depends on the opening tag are tracked on stacks.
+ *
+ * For well formed markup the result is the same as the one of the regular expression conversion in {@link HtmlToTEIConvert}. Unlike the regular
+ * expressions, markup which spans several lines is converted as well, and nested or overlapping elements are paired by their nesting instead of
+ * by the next matching end tag.
+ *
+ */
+class HtmlToTEITokenConverter {
+
+    private static final String ROOT_START = "<div xmlns=\"http://www.tei-c.org/ns/1.0\">";
+    private static final String DIV_START = "<div>";
+    private static final String DIV_END = "</div>";
+
+    private static final String UNDERLINE_SPAN = "<span style=\"text-decoration: underline;\">";
+    private static final Pattern FOOTNOTE_SPAN = Pattern.compile("<span title=\"([^>]*)\">");
+    private static final Pattern OLD_BLOCKQUOTE = Pattern.compile("<blockquote>\\s*<p>\\[Q=(.*?)\\](.*?)\\[/Q\\]</p>\\s*</blockquote>");
+    private static final Pattern CITE_BLOCKQUOTE = Pattern.compile("<blockquote\\s+cite=\"(.*?)\">");
+    private static final Pattern CITE_QUOTE = Pattern.compile("<q\\s+cite=\"(.*?)\">");
+    private static final Pattern IMAGE = Pattern.compile("<img src=\"(.*?)\" alt=\"(.*?)\" />");
+    private static final Pattern ALPHABETICAL_LIST = Pattern.compile("<ol.*?style=\".*?-(alpha|greek).*?>");
+    private static final Pattern HREF = Pattern.compile("href=\"(.*?)\"");
+    private static final Pattern PLAIN_ANCHOR = Pattern.compile("<a\\s*(\\w+=\"[^\"]*\"\\s*)*>");
+
+    private final ConverterMode mode;
+    /** tags which are always replaced by the same text */
+    private final Map<String, String> replacements = new HashMap<>();
+
+    HtmlToTEITokenConverter(ConverterMode mode) {
+        this.mode = mode;
+        replacements.put("<p />", "");
+        replacements.put("<p/>", "");
+        replacements.put("<br />", "");
+        replacements.put("<tbody>", "");
+        replacements.put("</tbody>", "");
+        replacements.put("<thead>", "");
+        replacements.put("</thead>", "");
+        replacements.put("<caption>", "<head>");
+        replacements.put("</caption>", "</head>");
+        replacements.put("</tr>", "</row>");
+        replacements.put("</td>", "</cell>");
+        replacements.put("<li>", "<item>");
+        replacements.put("</li>", "</item>");
+        replacements.put("</ul>", "</list>");
+        replacements.put("</ol>", "</list>");
+    }
+
+    String convert(String text) {
+        text = EntityDecoder.decodeHtml(text.replace("&nbsp;", ""));
+        return new Conversion(text).run().trim();
+    }
+
+    private boolean isAnnotation() {
+        return ConverterMode.annotation.equals(mode);
+    }
+
+    /**
+     * An element which has been converted, together with what is written for its end tag
+     */
+    private static class Frame {
+        /** position of the converted start tag in the output */
+        private final int start;
+        /** order in which the elements were opened */
+        private final int number;
+        private final String converted;
+        private final String raw;
+        private final String end;
+        /** remove whitespace before the end tag */
+        private boolean trim;
+        private int level;
+
+        private Frame(int start, int number, String converted, String raw, String end) {
+            this.start = start;
+            this.number = number;
+            this.converted = converted;
+            this.raw = raw;
+            this.end = end;
+        }
+    }
+
+    /**
+     * State of the conversion of a single text
+     */
+    private class Conversion {
+        private final String input;
+        private final StringBuilder out;
+        private int pos;
+
+        private final Deque<Integer> sections = new ArrayDeque<>();
+        private final Deque<Frame> headers = new ArrayDeque<>();
+        private final Deque<Frame> bold = new ArrayDeque<>();
+        private final Deque<Frame> italic = new ArrayDeque<>();
+        private final Deque<Frame> spans = new ArrayDeque<>();
+        private final Deque<Frame> blockquotes = new ArrayDeque<>();
+        private final Deque<Frame> quotes = new ArrayDeque<>();
+        private final Deque<Frame> anchors = new ArrayDeque<>();
+        private Frame editorialNote;
+        private Frame sourceQuote;
+        private Frame simpleQuote;
+
+        /** skip whitespace at the start of a quotation */
+        private boolean skipWhitespace;
+        /** end of the quoted text of a blockquote in the old [Q=] notation and end of the whole blockquote */
+        private int oldQuoteEnd = -1;
+        private int oldQuoteTail;
+        private int nextClosingBlockquote;
+        private int nextClosingBracket;
+        private int citedBlockquotes;
+        private int citedQuotes;
+        private int quoteRefBase = -1;
+        private int openedFrames;
+
+        private Conversion(String input) {
+            this.input = input;
+            this.out = new StringBuilder(input.length() + input.length() / 4 + ROOT_START.length());
+        }
+
+        private String run() {
+            out.append(ROOT_START);
+            int length = input.length();
+            while (pos < length) {
+                if (pos == oldQuoteEnd) {
+                    out.append("</q></cit>");
+                    pos = oldQuoteTail;
+                    oldQuoteEnd = -1;
+                    continue;
+                }
+                char c = input.charAt(pos);
+                if (c == '<') {
+                    readTag();
+                } else if (c == '[') {
+                    readMarker();
+                } else {
+                    readText();
+                }
+            }
+            out.append(DIV_END);
+            for (int i = 0; i < sections.size(); i++) {
+                out.append(DIV_END);
+            }
+            return restoreUnclosed();
+        }
+
+        private void readText() {
+            int end = pos + 1;
+            int limit = oldQuoteEnd > pos ? oldQuoteEnd : input.length();
+            while (end < limit && input.charAt(end) != '<' && input.charAt(end) != '[') {
+                end++;
+            }
+            appendText(pos, end);
+            pos = end;
+        }
+
+        private void appendText(int start, int end) {
+            if (skipWhitespace) {
+                while (start < end && isWhitespace(input.charAt(start))) {
+                    start++;
+                }
+                skipWhitespace = start == end;
+            }
+            out.append(input, start, end);
+        }
+
+        private void readTag() {
+            int start = pos;
+            if (input.startsWith("<!--", start)) {
+                int commentEnd = input.indexOf("-->", start + 4);
+                if (commentEnd >= 0) {
+                    pos = commentEnd + 3;
+                    return;
+                }
+            }
+            int end = input.indexOf('>', start + 1);
+            if (end < 0) {
+                appendText(start, input.length());
+                pos = input.length();
+                return;
+            }
+            String raw = input.substring(start, end + 1);
+            pos = end + 1;
+            skipWhitespace = false;
+            String replacement = replacements.get(raw);
+            if (replacement != null) {
+                out.append(replacement);
+            } else if (raw.startsWith("</")) {
+                closeTag(raw, getTagName(raw, 2));
+            } else {
+                openTag(raw, getTagName(raw, 1), start);
+            }
+        }
+
+        private void openTag(String raw, String name, int start) {
+            switch (name) {
+                case "p":
+                    if ("<p>".equals(raw) && skipEmptyParagraph()) {
+                        return;
+                    }
+                    break;
+                case "strong":
+                    if ("<strong>".equals(raw)) {
+                        bold.push(open(raw, "<hi rend=\"bold\">", "</hi>"));
+                        return;
+                    }
+                    break;
+                case "em":
+                    if ("<em>".equals(raw)) {
+                        italic.push(open(raw, "<hi rend=\"italic\">", "</hi>"));
+                        return;
+                    }
+                    break;
+                case "span":
+                    openSpan(raw);
+                    return;
+                case "table":
+                    out.append("<table>");
+                    return;
+                case "tr":
+                    out.append("<row>");
+                    return;
+                case "td":
+                    out.append("<cell>");
+                    return;
+                case "ul":
+                    out.append(isAnnotation() ? "<list rend=\"bulleted\">" : "<list>");
+                    return;
+                case "ol":
+                    if (!isAnnotation()) {
+                        out.append("<list>");
+                    } else if (ALPHABETICAL_LIST.matcher(raw).matches()) {
+                        out.append("<list rend=\"alphabetical\">");
+                    } else {
+                        out.append("<list rend=\"numbered\">");
+                    }
+                    return;
+                case "img":
+                    Matcher image = IMAGE.matcher(raw);
+                    if (image.matches()) {
+                        out.append("<figure><head>").append(image.group(2)).append("</head><graphic url=\"").append(image.group(1)).append("\"/></figure>");
+                        return;
+                    }
+                    break;
+                case "blockquote":
+                    openBlockquote(raw, start);
+                    return;
+                case "q":
+                    openQuote(raw);
+                    return;
+                case "a":
+                    openAnchor(raw);
+                    return;
+                case "div":
+                    if (raw.endsWith("/>")) {
+                        return;
+                    }
+                    break;
+                default:
+                    int level = getHeaderLevel(name);
+                    if (level > 0) {
+                        openHeader(raw, level);
+                        return;
+                    }
+            }
+            out.append(raw);
+        }
+
+        private void closeTag(String raw, String name) {
+            switch (name) {
+                case "strong":
+                    close(bold, raw, "</strong>");
+                    return;
+                case "em":
+                    close(italic, raw, "</em>");
+                    return;
+                case "span":
+                    close(spans, raw, "</span>");
+                    return;
+                case "blockquote":
+                    close(blockquotes, raw, "</blockquote>");
+                    return;
+                case "q":
+                    close(quotes, raw, "</q>");
+                    return;
+                case "a":
+                    close(anchors, raw, "</a>");
+                    return;
+                default:
+                    int level = getHeaderLevel(name);
+                    if (level > 0 && !headers.isEmpty() && headers.peek().level == level) {
+                        close(headers, raw, "</h" + level + ">");
+                        return;
+                    }
+            }
+            out.append(raw);
+        }
+
+        private Frame open(String raw, String converted, String end) {
+            Frame frame = new Frame(out.length(), openedFrames++, converted, raw, end);
+            out.append(converted);
+            return frame;
+        }
+
+        private void close(Deque<Frame> frames, String raw, String expected) {
+            if (!raw.equals(expected) || frames.isEmpty()) {
+                out.append(raw);
+                return;
+            }
+            Frame frame = frames.pop();
+            if (frame.trim) {
+                int contentStart = frame.start + frame.converted.length();
+                int length = out.length();
+                while (length > contentStart && isWhitespace(out.charAt(length - 1))) {
+                    length--;
+                }
+                out.setLength(length);
+            }
+            out.append(frame.end);
+        }
+
+        private boolean skipEmptyParagraph() {
+            int next = pos;
+            while (input.startsWith("<!--", next)) {
+                int commentEnd = input.indexOf("-->", next + 4);
+                if (commentEnd < 0) {
+                    break;
+                }
+                next = commentEnd + 3;
+            }
+            if (input.startsWith("</p>", next)) {
+                pos = next + 4;
+                return true;
+            }
+            return false;
+        }
+
+        private void openHeader(String raw, int level) {
+            while (!sections.isEmpty() && sections.peek() >= level) {
+                sections.pop();
+                out.append(DIV_END);
+            }
+            sections.push(level);
+            out.append(DIV_START);
+            Frame frame = open(raw, "<head>", "</head>");
+            frame.level = level;
+            headers.push(frame);
+        }
+
+        private void openSpan(String raw) {
+            if (UNDERLINE_SPAN.equals(raw)) {
+                spans.push(open(raw, "<hi rend=\"underline\">", "</hi>"));
+                return;
+            }
+            Matcher footnote = FOOTNOTE_SPAN.matcher(raw);
+            if (footnote.matches()) {
+                int referenceEnd = input.indexOf('<', pos);
+                if (referenceEnd >= 0 && input.startsWith("</span>", referenceEnd)) {
+                    out.append(" <note>").append(HtmlToTEIConvert.createNoteBody(footnote.group(1))).append("</note> ");
+                    pos = referenceEnd + "</span>".length();
+                    return;
+                }
+            }
+            spans.push(open(raw, raw, "</span>"));
+        }
+
+        private void openBlockquote(String raw, int start) {
+            if ("<blockquote>".equals(raw) && isOldQuoteStart(pos)) {
+                Matcher oldQuote = OLD_BLOCKQUOTE.matcher(input).region(start, input.length());
+                if (oldQuote.lookingAt()) {
+                    out.append("<cit><q source=\"#").append(oldQuote.group(1)).append("\">");
+                    pos = oldQuote.start(2);
+                    oldQuoteEnd = oldQuote.end(2);
+                    oldQuoteTail = oldQuote.end();
+                    return;
+                }
+            }
+            Matcher cite = CITE_BLOCKQUOTE.matcher(raw);
+            Frame frame;
+            if (cite.matches() && hasClosingBlockquote()) {
+                int number = ++citedBlockquotes;
+                String quote = isAnnotation() ? "quote" : "q";
+                frame = open(raw, "<cit> <" + quote + " source=\"#quoteref" + number + "\">",
+                        "</" + quote + "> " + createReference(number, cite.group(1)) + "</cit>");
+                frame.trim = true;
+                skipWhitespace = true;
+            } else if ("<blockquote>".equals(raw) && hasClosingBlockquote()) {
+                frame = isAnnotation() ? open(raw, "<cit><quote source=\"#\">", "</quote></cit>") : open(raw, "<cit><q>", "</q></cit>");
+                frame.trim = true;
+                skipWhitespace = true;
+            } else {
+                frame = open(raw, raw, "</blockquote>");
+            }
+            blockquotes.push(frame);
+        }
+
+        /**
+         * Check if a blockquote in the old [Q=] notation may start at the given position, so the full expression is only tried for those
+         */
+        private boolean isOldQuoteStart(int from) {
+            while (from < input.length() && isWhitespace(input.charAt(from))) {
+                from++;
+            }
+            return input.startsWith("<p>[Q=", from);
+        }
+
+        private boolean hasClosingBlockquote() {
+            if (nextClosingBlockquote >= 0 && nextClosingBlockquote < pos) {
+                nextClosingBlockquote = input.indexOf("</blockquote>", pos);
+            }
+            return nextClosingBlockquote >= 0;
+        }
+
+        private void openQuote(String raw) {
+            Matcher cite = CITE_QUOTE.matcher(raw);
+            if (!cite.matches()) {
+                quotes.push(open(raw, raw, "</q>"));
+                return;
+            }
+            if (quoteRefBase < 0) {
+                // all cited blockquotes are numbered before the cited quotes
+                quoteRefBase = citedBlockquotes + countCitedBlockquotes(pos);
+            }
+            int number = quoteRefBase + ++citedQuotes;
+            String quote = isAnnotation() ? "quote" : "q";
+            quotes.push(open(raw, "<" + quote + " source=\"#quoteref" + number + "\" type=\"direct\">",
+                    "</" + quote + ">(" + createReference(number, cite.group(1)) + ")"));
+        }
+
+        private int countCitedBlockquotes(int from) {
+            int count = 0;
+            // a blockquote is only converted if an end tag follows it
+            int lastClosing = input.lastIndexOf("</blockquote>");
+            Matcher cite = CITE_BLOCKQUOTE.matcher(input);
+            int start = input.indexOf("<blockquote", from);
+            while (start >= 0 && start < lastClosing) {
+                int end = input.indexOf('>', start);
+                if (end < 0) {
+                    break;
+                }
+                if (cite.region(start, end + 1).matches() && lastClosing >= end) {
+                    count++;
+                }
+                start = input.indexOf("<blockquote", end);
+            }
+            return count;
+        }
+
+        private String createReference(int number, String target) {
+            return "<ref type=\"bibl\" xml:id=\"quoteref" + number + "\" target=\"#ref" + number + "\">" + target + "</ref>";
+        }
+
+        private void openAnchor(String raw) {
+            Matcher href = HREF.matcher(raw);
+            if (href.find()) {
+                String type = isAnnotation() ? "" : " type=\"url\"";
+                anchors.push(open(raw, "<ref target=\"" + href.group(1) + "\"" + type + ">", "</ref>"));
+            } else if (PLAIN_ANCHOR.matcher(raw).matches()) {
+                anchors.push(open(raw, "", ""));
+            } else {
+                anchors.push(open(raw, raw, "</a>"));
+            }
+        }
+
+        private void readMarker() {
+            if (input.startsWith("[anm]", pos) && editorialNote == null) {
+                editorialNote = open("[anm]", "<note type=\"editorial\"><p>", "</p></note>");
+                pos += 5;
+            } else if (input.startsWith("[/anm]", pos) && editorialNote != null) {
+                out.append(editorialNote.end);
+                editorialNote = null;
+                pos += 6;
+            } else if (input.startsWith("[Q=", pos) && sourceQuote == null && findClosingBracket(pos + 3) >= 0) {
+                String source = input.substring(pos + 3, nextClosingBracket);
+                sourceQuote = open(input.substring(pos, nextClosingBracket + 1), "<q source=\"#" + source + "\">", "</q>");
+                pos = nextClosingBracket + 1;
+            } else if (input.startsWith("[/Q]", pos) && sourceQuote != null) {
+                out.append(sourceQuote.end);
+                sourceQuote = null;
+                pos += 4;
+            } else if (input.startsWith("[q]", pos) && simpleQuote == null) {
+                simpleQuote = open("[q]", "<q>", "</q>");
+                pos += 3;
+            } else if (input.startsWith("[/q]", pos) && simpleQuote != null) {
+                out.append(simpleQuote.end);
+                simpleQuote = null;
+                pos += 4;
+            } else {
+                appendText(pos, pos + 1);
+                pos++;
+            }
+            skipWhitespace = false;
+        }
+
+        private int findClosingBracket(int from) {
+            if (nextClosingBracket >= 0 && nextClosingBracket < from) {
+                nextClosingBracket = input.indexOf(']', from);
+            }
+            return nextClosingBracket;
+        }
+
+        /**
+         * Elements without end tag are not converted, so their converted start tags are replaced by the original ones again
+         *
+         * @return the converted text
+         */
+        private String restoreUnclosed() {
+            List<Frame> unclosed = new ArrayList<>();
+            for (Deque<Frame> frames : List.of(headers, bold, italic, spans, blockquotes, quotes, anchors)) {
+                for (Frame frame : frames) {
+                    if (!frame.converted.equals(frame.raw)) {
+                        unclosed.add(frame);
+                    }
+                }
+            }
+            for (Frame frame : new Frame[] { editorialNote, sourceQuote, simpleQuote }) {
+                if (frame != null && !frame.converted.equals(frame.raw)) {
+                    unclosed.add(frame);
+                }
+            }
+            if (unclosed.isEmpty()) {
+                return out.toString();
+            }
+            // elements whose converted start tag is empty may share their position with the next element
+            unclosed.sort(Comparator.comparingInt((Frame frame) -> frame.start).thenComparingInt(frame -> frame.number));
+            StringBuilder restored = new StringBuilder(out.length() + unclosed.size() * 16);
+            int position = 0;
+            for (Frame frame : unclosed) {
+                restored.append(out, position, frame.start).append(frame.raw);
+                position = frame.start + frame.converted.length();
+            }
+            restored.append(out, position, out.length());
+            return restored.toString();
+        }
+    }
+
+    private static String getTagName(String tag, int offset) {
+        int end = offset;
+        while (end < tag.length() && Character.isLetterOrDigit(tag.charAt(end))) {
+            end++;
+        }
+        return tag.substring(offset, end);
+    }
+
+    private static int getHeaderLevel(String name) {
+        if (name.length() == 2 && name.charAt(0) == 'h' && name.charAt(1) >= '1' && name.charAt(1) <= '9') {
+            return name.charAt(1) - '0';
+        }
+        return 0;
+    }
+
+    /**
+     * Whitespace as matched by <code>\s</code>
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,135 @@
+package de.intranda.goobi.ocr.tei;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.intranda.goobi.utils.TextReplacement;
+
+/**
+ * Replaces start and end tags of inline html elements like <code>&lt;strong&gt;</code> in a single pass. Start and end tags are paired by their
+ * nesting using one stack per element name, so arbitrarily nested markup is rewritten in linear time.
+ *
+ * Like the regular expressions this replaces, an element is only rewritten if its start tag is exactly the configured one, if it has an end tag
+ * and if start and end tag are on the same line. All other tags are kept unchanged.
+ *
+ */
+public class InlineMarkupRewriter {
+
+    private final Map<String, Rule> rules = new HashMap<>();
+
+    /**
+     * Rewrite elements with the given name
+     *
+     * @param name element name
+     * @param startTag the start tag which is rewritten, start tags of the same element with different attributes are kept
+     * @param replacementStart replaces the start tag
+     * @param replacementEnd replaces the end tag
+     * @return this rewriter
+     */
+    public InlineMarkupRewriter addRule(String name, String startTag, String replacementStart, String replacementEnd) {
+        rules.put(name, new Rule(startTag, "</" + name + ">", replacementStart, replacementEnd));
+        return this;
+    }
+
+    public String rewrite(String text) {
+        List<TextReplacement> replacements = new ArrayList<>();
+        Map<String, Deque<OpenTag>> openTags = new HashMap<>();
+        int lastLineBreak = -1;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (isLineBreak(c)) {
+                lastLineBreak = i;
+            }
+            if (c != '<') {
+                continue;
+            }
+            int end = text.indexOf('>', i);
+            if (end < 0) {
+                break;
+            }
+            boolean closing = end > i + 1 && text.charAt(i + 1) == '/';
+            Rule rule = rules.get(getTagName(text, closing ? i + 2 : i + 1, end));
+            if (rule != null) {
+                Deque<OpenTag> stack = openTags.computeIfAbsent(rule.endTag, k -> new ArrayDeque<>());
+                if (!closing) {
+                    // self-closing tags like <strong/> have no end tag and are kept unchanged
+                    if (text.charAt(end - 1) != '/') {
+                        stack.push(new OpenTag(i, end + 1, text.startsWith(rule.startTag, i) && rule.startTag.length() == end + 1 - i));
+                    }
+                } else if (text.startsWith(rule.endTag, i) && rule.endTag.length() == end + 1 - i && !stack.isEmpty()) {
+                    OpenTag start = stack.pop();
+                    if (start.matching && start.start > lastLineBreak) {
+                        replacements.add(new TextReplacement(start.start, start.end, rule.replacementStart));
+                        replacements.add(new TextReplacement(i, end + 1, rule.replacementEnd));
+                    }
+                }
+            }
+            // line breaks within the tag
+            for (int j = i + 1; j < end; j++) {
+                if (isLineBreak(text.charAt(j))) {
+                    lastLineBreak = j;
+                }
+            }
+            i = end;
+        }
+        if (replacements.isEmpty()) {
+            return text;
+        }
+        Collections.sort(replacements);
+        StringBuilder result = new StringBuilder(text.length() + replacements.size() * 8);
+        int position = 0;
+        for (TextReplacement replacement : replacements) {
+            result.append(text, position, replacement.getStart()).append(replacement.getReplacement());
+            position = replacement.getEnd();
+        }
+        result.append(text, position, text.length());
+        return result.toString();
+    }
+
+    private static String getTagName(String text, int start, int end) {
+        int nameEnd = start;
+        while (nameEnd < end && Character.isLetterOrDigit(text.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        return text.substring(start, nameEnd);
+    }
+
+    /**
+     * Line terminators as recognized by <code>.</code> in regular expressions
+     */
+    private static boolean isLineBreak(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static class Rule {
+        private final String startTag;
+        private final String endTag;
+        private final String replacementStart;
+        private final String replacementEnd;
+
+        private Rule(String startTag, String endTag, String replacementStart, String replacementEnd) {
+            this.startTag = startTag;
+            this.endTag = endTag;
+            this.replacementStart = replacementStart;
+            this.replacementEnd = replacementEnd;
+        }
+    }
+
+    private static class OpenTag {
+        private final int start;
+        private final int end;
+        /** the start tag is the one of the rule */
+        private final boolean matching;
+
+        private OpenTag(int start, int end, boolean matching) {
+            this.start = start;
+            this.end = end;
+            this.matching = matching;
+        }
+    }
+}
@@ -2,6 +2,8 @@ package de.intranda.goobi.ocr.tei;
 
 public class SimpleFootnote implements Footnote {
 
+    private static final String NUMBER_PLACEHOLDER = "§";
+
     private String referenceRegex;
     private String noteRegex;
     
@@ -24,8 +26,54 @@ public class SimpleFootnote implements Footnote {
 
     @Override
     public String getNoteRegex(String number) {
-        String regex = this.noteRegex.replace("§", number);
+        String regex = this.noteRegex.replace(NUMBER_PLACEHOLDER, number);
         return regex;
     }
 
+    @Override
+    public String getNoteRegex() {
+        int index = noteRegex.indexOf(NUMBER_PLACEHOLDER);
+        if (index < 0) {
+            return noteRegex;
+        }
+        // a group name can only be defined once, later occurrences must match the same number
+        return noteRegex.substring(0, index) + "(?<" + NUMBER_GROUP + ">\\d+)"
+                + noteRegex.substring(index + 1).replace(NUMBER_PLACEHOLDER, "\\k<" + NUMBER_GROUP + ">");
+    }
+
+    @Override
+    public int getNoteTextGroup() {
+        int index = noteRegex.indexOf(NUMBER_PLACEHOLDER);
+        if (index < 0) {
+            return 1;
+        }
+        // the number group shifts the text group if it is opened first
+        return countGroups(noteRegex.substring(0, index)) > 0 ? 1 : 2;
+    }
+
+    @Override
+    public boolean isNumbered() {
+        return noteRegex.contains(NUMBER_PLACEHOLDER);
+    }
+
+    /**
+     * @return the number of capturing groups opened in the given part of a regular expression
+     */
+    private static int countGroups(String regex) {
+        int count = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '(' && (!regex.startsWith("?", i + 1) || isNamedGroup(regex, i))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isNamedGroup(String regex, int start) {
+        return regex.startsWith("(?<", start) && regex.length() > start + 3 && Character.isLetter(regex.charAt(start + 3));
+    }
+
 }
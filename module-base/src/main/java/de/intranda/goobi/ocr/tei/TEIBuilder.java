@@ -2,11 +2,12 @@ package de.intranda.goobi.ocr.tei;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.io.Writer;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringEscapeUtils;
 import org.jdom2.Content;
@@ -17,6 +18,10 @@ import org.jdom2.Namespace;
 import org.jdom2.input.SAXBuilder;
 
 import de.intranda.goobi.ocr.tei.HtmlToTEIConvert.ConverterMode;
+import de.intranda.goobi.utils.PatternCache;
+import de.intranda.goobi.utils.RegexTimeoutException;
+import de.intranda.goobi.utils.TextReplacement;
+import de.intranda.goobi.utils.TimeLimitedCharSequence;
 import lombok.extern.log4j.Log4j;
 
 @Log4j
@@ -27,10 +32,19 @@ public class TEIBuilder {
     protected static final Namespace XML = Namespace.getNamespace("xml", "http://www.w3.org/XML/1998/namespace");
 
     public static final String SECTION_ELEMENT_NAME = "seg";
+
+    private static final String TITLE_START = "title=\"";
+    private static final String TITLE_END = "\">";
+    private static final String TITLE_REGEX = "title=\"(.*?)\">";
     
     private List<String> texts = new ArrayList<>();
     private List<Element> headerContent = new ArrayList();
     private String language;
+    /** indent the document structure in {@link #write(Writer)} */
+    private boolean prettyPrint;
+    /** time limit for the regular expressions applied to one text segment, null for no limit */
+    private Duration timeout;
+    private int fallbackCount;
     
     public Document build() throws JDOMException, IOException {
         Document teiDocument = new Document();
@@ -51,6 +65,21 @@ public class TEIBuilder {
 
         return teiDocument;
     }
+
+    /**
+     * Write the TEI document directly to the given writer instead of building it in memory first. The result is equivalent to {@link #build()}
+     * 
+     * @param out destination of the document, it is not closed
+     * @throws JDOMException
+     * @throws IOException
+     */
+    public void write(Writer out) throws JDOMException, IOException {
+        try (TEIStreamWriter writer = new TEIStreamWriter(out, language, texts.size() != 1, prettyPrint)) {
+            for (String text : texts) {
+                writer.writeSegment(unescape(text));
+            }
+        }
+    }
     
     protected Element createHeader(String language) throws JDOMException, IOException {
         Element teiHeader = new Element("teiHeader", TEI);
@@ -61,15 +90,17 @@ public class TEIBuilder {
 
         Element body = new Element("body", TEI);
         List<Content> content;
+        // the builder reuses its parser for all segments
+        SAXBuilder parser = new SAXBuilder();
         if(texts.size() == 1) {
             String text = texts.get(0);//new HtmlToTEIConvert(ConverterMode.resource).convert(texts.get(0));
-        	content = new SAXBuilder().build(new StringReader("<div>" + unescape(text) + "</div>")).getRootElement().removeContent();
+        	content = parser.build(new StringReader("<div>" + unescape(text) + "</div>")).getRootElement().removeContent();
         } else {
         	content = new ArrayList<>();
         	for (String text : texts) {
 //        	    text = new HtmlToTEIConvert(ConverterMode.resource).convert(text);
 				Element section = new Element(SECTION_ELEMENT_NAME, TEI);
-	        	section.addContent(new SAXBuilder().build(new StringReader("<div>" + unescape(text) + "</div>")).getRootElement().removeContent());
+	        	section.addContent(parser.build(new StringReader("<div>" + unescape(text) + "</div>")).getRootElement().removeContent());
 	        	content.add(section);
 			}
         }
@@ -78,13 +109,7 @@ public class TEIBuilder {
     }
     
     private String unescape(String text) {
-        text = text.replace("&lt;", "!!<<!!");
-        text = text.replace("&gt;", "!!>>!!");
-        text = StringEscapeUtils.unescapeHtml(text);
-        text = text.replace("&", "&amp;");
-        text = text.replace("!!<<!!", "&lt;");
-        text = text.replace("!!>>!!", "&gt;");
-        return text;
+        return EntityDecoder.toXml(text);
     }
 
     public TEIBuilder setLanguage(String language) {
@@ -92,6 +117,37 @@ public class TEIBuilder {
     	return this;
     }
     
+    /**
+     * Put the document structure and each text segment on its own indented line when the document is written. The text segments themselves are
+     * written unchanged
+     *
+     * @param prettyPrint
+     * @return this builder
+     */
+    public TEIBuilder setPrettyPrint(boolean prettyPrint) {
+        this.prettyPrint = prettyPrint;
+        return this;
+    }
+
+    /**
+     * Limit the time the regular expressions applied to a text segment may take. Segments exceeding it are processed without regular
+     * expressions, see {@link #getFallbackCount()}. The limit applies to segments added afterwards
+     *
+     * @param timeout the time limit, null for no limit
+     * @return this builder
+     */
+    public TEIBuilder setTimeout(Duration timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * @return the number of text segments which exceeded the time limit
+     */
+    public int getFallbackCount() {
+        return fallbackCount;
+    }
+
     public TEIBuilder addHeaderContent(Element content) {
     	this.headerContent.add(content);
     	return this;
@@ -106,17 +162,86 @@ public class TEIBuilder {
     }
 
 	protected String formatText(String text) {
-		// bold+italic+underline
-        for (MatchResult r : findRegexMatches(
-                "title=\"(.*?)\">", text)) {
-            text = text.replace(r.group(1), StringEscapeUtils.escapeHtml(r.group(1)));
+        List<TextReplacement> titles = new ArrayList<>();
+        try {
+            CharSequence input = timeout == null ? text : TimeLimitedCharSequence.withTimeout(text, timeout);
+            for (MatchResult r : findRegexMatches(TITLE_REGEX, input)) {
+                titles.add(escapeTitle(text, r.start(1), r.end(1)));
+            }
+        } catch (RegexTimeoutException e) {
+            log.warn(e.getMessage() + ", searching title attributes without regular expression instead");
+            fallbackCount++;
+            titles = findTitles(text);
         }
-        return text;
+        if (titles.isEmpty()) {
+            return text;
+        }
+        // the titles are ordered and never overlap, so the escaped values are spliced in one pass
+        StringBuilder result = new StringBuilder(text.length() + text.length() / 8);
+        int position = 0;
+        for (TextReplacement title : titles) {
+            result.append(text, position, title.getStart()).append(title.getReplacement());
+            position = title.getEnd();
+        }
+        result.append(text, position, text.length());
+        return result.toString();
 	}
+
+    private static TextReplacement escapeTitle(String text, int start, int end) {
+        return new TextReplacement(start, end, StringEscapeUtils.escapeHtml(text.substring(start, end)));
+    }
+
+    /**
+     * Find the same title attribute values as {@link #TITLE_REGEX} in linear time
+     *
+     * @param text
+     * @return the escaped values of all title attributes at their positions in the text
+     */
+    static List<TextReplacement> findTitles(String text) {
+        List<TextReplacement> titles = new ArrayList<>();
+        int valueEnd = -1;
+        int lineBreak = -1;
+        int position = 0;
+        int start;
+        while ((start = text.indexOf(TITLE_START, position)) >= 0) {
+            int valueStart = start + TITLE_START.length();
+            // both are the first occurrence behind the previous title, so they only need to be searched again once they were passed
+            if (valueEnd < valueStart) {
+                valueEnd = text.indexOf(TITLE_END, valueStart);
+                if (valueEnd < 0) {
+                    break;
+                }
+            }
+            if (lineBreak < valueStart) {
+                lineBreak = findLineBreak(text, valueStart);
+            }
+            if (lineBreak < valueEnd) {
+                // the value may not span lines, try the next title
+                position = start + 1;
+            } else {
+                titles.add(escapeTitle(text, valueStart, valueEnd));
+                position = valueEnd + TITLE_END.length();
+            }
+        }
+        return titles;
+    }
+
+    /**
+     * @return the position of the first line terminator as recognized by <code>.</code> in regular expressions, the text length if there is none
+     */
+    private static int findLineBreak(String text, int start) {
+        for (int i = start; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return i;
+            }
+        }
+        return text.length();
+    }
 	
     public static Iterable<MatchResult> findRegexMatches(String pattern, CharSequence s) {
         List<MatchResult> results = new ArrayList<>();
-        for (Matcher m = Pattern.compile(pattern)
+        for (Matcher m = PatternCache.compile(pattern)
                 .matcher(s); m.find();) {
             results.add(m.toMatchResult());
         }
@@ -0,0 +1,86 @@
+package de.intranda.goobi.ocr.tei;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Destination of a TEI file. The text is encoded as UTF-8, which is the encoding the TEI documents declare, and written to the file in large
+ * blocks. {@link #commit()} makes sure everything has been written, optionally up to the storage device, and {@link #close()} releases the file
+ * in any case.
+ *
+ */
+public class TEIFileOutput implements Closeable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final Writer writer;
+    private final boolean sync;
+
+    /**
+     * Create or overwrite the given file with the default buffer size
+     *
+     * @param file
+     * @param sync true to force the file to the storage device on {@link #commit()}
+     * @throws IOException
+     */
+    public TEIFileOutput(Path file, boolean sync) throws IOException {
+        this(file, sync, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create or overwrite the given file
+     *
+     * @param file
+     * @param sync true to force the file to the storage device on {@link #commit()}
+     * @param bufferSize size of the character and of the byte buffer
+     * @throws IOException
+     */
+    public TEIFileOutput(Path file, boolean sync, int bufferSize) throws IOException {
+        this.sync = sync;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        // like a FileWriter, characters which cannot be encoded are replaced
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.writer = new BufferedWriter(Channels.newWriter(channel, encoder, bufferSize), bufferSize);
+    }
+
+    /**
+     * @return the writer for the content of the file. It must not be closed, the file is closed by {@link #close()}
+     */
+    public Writer getWriter() {
+        return writer;
+    }
+
+    /**
+     * Write all buffered content to the file. If the output was created with sync, the file is also forced to the storage device
+     *
+     * @throws IOException
+     */
+    public void commit() throws IOException {
+        writer.flush();
+        if (sync) {
+            channel.force(true);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writer.close();
+        } finally {
+            // closes the file even if the last flush of the writer failed
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package de.intranda.goobi.ocr.tei;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.jdom2.JDOMException;
+
+/**
+ * Writes a TEI document directly to its destination. Header, text and body are written when the writer is created, each text segment is written
+ * as soon as it is added and the document is completed by {@link #close()}. Segments are passed from the parser to the output without building a tree.
+ *
+ */
+public class TEIStreamWriter implements Closeable {
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+    private static final String INDENT = "  ";
+
+    private final XMLStreamWriter writer;
+    private final boolean segmented;
+    private final boolean pretty;
+    private final FragmentParser parser;
+
+    /**
+     * Start a new compact TEI document
+     *
+     * @param out destination of the document, it is not closed by this writer
+     * @param language language of the text
+     * @param segmented true to wrap each text segment in its own {@link TEIBuilder#SECTION_ELEMENT_NAME} element
+     * @throws IOException
+     */
+    public TEIStreamWriter(Writer out, String language, boolean segmented) throws IOException {
+        this(out, language, segmented, false);
+    }
+
+    /**
+     * Start a new TEI document
+     *
+     * @param out destination of the document, it is not closed by this writer
+     * @param language language of the text
+     * @param segmented true to wrap each text segment in its own {@link TEIBuilder#SECTION_ELEMENT_NAME} element
+     * @param pretty true to put the document structure and each segment on its own indented line. The content of the segments is never changed
+     * @throws IOException
+     */
+    public TEIStreamWriter(Writer out, String language, boolean segmented, boolean pretty) throws IOException {
+        this.segmented = segmented;
+        this.pretty = pretty;
+        try {
+            writer = OUTPUT_FACTORY.createXMLStreamWriter(out);
+            writer.writeStartDocument("UTF-8", "1.0");
+            indent(0);
+            writer.writeStartElement("TEI");
+            indent(1);
+            writer.writeEmptyElement("teiHeader");
+            indent(1);
+            writer.writeStartElement("text");
+            if (language != null) {
+                writer.writeAttribute(TEIBuilder.XML.getPrefix(), TEIBuilder.XML.getURI(), "lang", language);
+            }
+            indent(2);
+            writer.writeStartElement("body");
+            parser = new FragmentParser(writer);
+        } catch (XMLStreamException e) {
+            throw new IOException("Cannot start TEI document", e);
+        }
+    }
+
+    /**
+     * Parse the given text segment and write it to the body of the document
+     *
+     * @param text well formed xml content, html entities must already be resolved
+     * @throws JDOMException if the segment is not well formed
+     * @throws IOException
+     */
+    public void writeSegment(String text) throws JDOMException, IOException {
+        try {
+            indent(3);
+            if (segmented) {
+                writer.writeStartElement(TEIBuilder.SECTION_ELEMENT_NAME);
+            }
+            parser.parse(text);
+            if (segmented) {
+                writer.writeEndElement();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Cannot write TEI segment", e);
+        }
+    }
+
+    /**
+     * Complete the document and flush it to the destination
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            // body, text and TEI
+            indent(2);
+            writer.writeEndElement();
+            indent(1);
+            writer.writeEndElement();
+            indent(0);
+            writer.writeEndElement();
+            indent(0);
+            writer.writeEndDocument();
+            writer.flush();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Cannot complete TEI document", e);
+        }
+    }
+
+    /**
+     * Start a new line with the given indentation if the document is pretty printed
+     */
+    private void indent(int depth) throws XMLStreamException {
+        if (pretty) {
+            writer.writeCharacters("\n" + INDENT.repeat(depth));
+        }
+    }
+}
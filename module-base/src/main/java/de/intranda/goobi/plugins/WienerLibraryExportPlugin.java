@@ -2,14 +2,14 @@ package de.intranda.goobi.plugins;
 
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.DecimalFormat;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -17,7 +17,15 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -35,15 +43,17 @@ import org.goobi.production.enums.LogType;
 import org.goobi.production.enums.PluginType;
 import org.goobi.production.plugin.interfaces.IExportPlugin;
 import org.goobi.production.plugin.interfaces.IPlugin;
-import org.jdom2.Document;
-import org.jdom2.Element;
 import org.jdom2.JDOMException;
-import org.jdom2.Namespace;
-import org.jdom2.input.SAXBuilder;
-import org.jdom2.output.Format;
-import org.jdom2.output.XMLOutputter;
 
 import de.intranda.goobi.ocr.tei.TEIBuilder;
+import de.intranda.goobi.ocr.tei.TEIFileOutput;
+import de.intranda.goobi.utils.EnrichmentCache;
+import de.intranda.goobi.utils.GlossarySnapshotCache;
+import de.intranda.goobi.utils.IncrementalExport;
+import de.intranda.goobi.utils.MetsFileGroupInjector;
+import de.intranda.goobi.utils.ParallelFileCopy;
+import de.intranda.goobi.utils.ParallelFileCopy.LinkMode;
+import de.intranda.goobi.utils.StagingArea;
 import de.intranda.goobi.utils.VocabularyEnricher;
 import de.sub.goobi.config.ConfigPlugins;
 import de.sub.goobi.config.ConfigurationHelper;
@@ -62,6 +72,7 @@ import de.sub.goobi.persistence.managers.ProjectManager;
 import lombok.Data;
 import lombok.extern.log4j.Log4j2;
 import net.xeoh.plugins.base.annotations.PluginImplementation;
+import ugh.dl.DigitalDocument;
 import ugh.dl.DocStruct;
 import ugh.dl.ExportFileformat;
 import ugh.dl.Fileformat;
@@ -78,16 +89,41 @@ import ugh.exceptions.WriteException;
 @PluginImplementation
 public class WienerLibraryExportPlugin extends ExportMets implements IExportPlugin, IPlugin {
     private static final String PLUGIN_NAME = "intranda_export_wienerlibrary";
-    private static final Namespace metsNamespace = Namespace.getNamespace("mets", "http://www.loc.gov/METS/");
-    private static final Namespace xlink = Namespace.getNamespace("xlink", "http://www.w3.org/1999/xlink");
     private static final String FULLTEXT_METADATA_REGEX = "(?:Transcription|Translation)_(\\w{1,3})";
     private static final String EXPORT_IMAGE_DIRECTORY_SUFFIX = "_tif";
+    /** folder in the export folder in which the exports are prepared if no staging folder is configured */
+    private static final String STAGING_FOLDER_NAME = ".staging";
     private static final String GLOSSARY_VOCABULARY_NAME = "Wiener Library Glossary";
+    private static final Duration DEFAULT_TEI_REGEX_TIMEOUT = Duration.ofSeconds(10);
+    /** interval of the warnings while waiting for TEI files which are still written after another one failed */
+    private static final Duration TEI_SHUTDOWN_WARNING_INTERVAL = Duration.ofMinutes(1);
 
     private VocabularyEnricher enricher = new VocabularyEnricher();
 
     private boolean exportWithImages = true;
     private boolean exportFulltext = true;
+    /** number of threads used to enrich the english metadata of one process, 1 enriches them on the export thread */
+    private int enrichmentThreads = 1;
+    /** number of threads used to write the TEI files of the different languages of one process */
+    private int teiThreads = 1;
+    /** force each TEI file to the storage device before it counts as written */
+    private boolean teiSync;
+    /** write TEI files without line breaks and indentation, like the TEI files were always written */
+    private boolean teiCompact = true;
+    /** time limit for the title attribute search in one TEI text segment, null for no limit */
+    private Duration teiRegexTimeout = DEFAULT_TEI_REGEX_TIMEOUT;
+    /** number of files copied at the same time by the image and fulltext export */
+    private int copyThreads = 1;
+    /** copy the exported files or link them to the files of the process */
+    private LinkMode linkMode = LinkMode.COPY;
+    /** folder in which the exports are prepared, null for a staging folder in each export folder */
+    private Path stagingFolder;
+    /** maximum size of the staging folder in bytes, 0 for no limit */
+    private long stagingQuota;
+    /** update the files of previous exports instead of exporting all files again */
+    private boolean incremental;
+    /** the incremental update of the current export, null if all files are exported */
+    private IncrementalExport incrementalExport;
 
     @Override
     public PluginType getType() {
@@ -123,21 +159,33 @@ public class WienerLibraryExportPlugin extends ExportMets implements IExportPlug
     public boolean startExport(Process process) throws IOException, InterruptedException, DocStructHasNoTypeException, PreferencesException,
             WriteException, MetadataTypeNotAllowedException, ExportFileException, UghHelperException, ReadException, SwapException, DAOException,
             TypeNotAllowedForParentException {
-        enricher.load(GLOSSARY_VOCABULARY_NAME);
-
         myPrefs = process.getRegelsatz().getPreferences();
         String atsPpnBand = process.getTitel();
+        // the metadata file is parsed once for all targets
         Fileformat internalFileformat = process.readMetadataFile();
-        internalFileformat.read(process.getMetadataFilePath());
-        VariableReplacer replacer = new VariableReplacer(internalFileformat.getDigitalDocument(), this.myPrefs, process, null);
+        DigitalDocument digitalDocument = internalFileformat.getDigitalDocument();
+        VariableReplacer replacer = new VariableReplacer(digitalDocument, this.myPrefs, process, null);
 
         Collection<Project> projects = getConfiguredProjects(process, replacer);
         
         Project defaultProject = process.getProjekt();
         Map<Project, Boolean> results = new LinkedHashMap<>();
+        int remainingTargets = projects.size();
         for (Project project : projects) {
+            remainingTargets--;
             process.setProjekt(project);
-            boolean exported = exportFiles(process, atsPpnBand, replacer);
+            boolean exported;
+            try {
+                // each target may have its own configuration section
+                configure(process);
+                // the export changes the document, so all targets but the last one get their own copy
+                DigitalDocument document = remainingTargets > 0 ? digitalDocument.copyDigitalDocument() : digitalDocument;
+                exported = exportFiles(process, atsPpnBand, replacer, document);
+            } catch (WriteException e) {
+                Helper.setFehlerMeldung(Helper.getTranslation("exportError") + process.getTitel(), e);
+                log.error("Cannot copy the metadata of {} for project configuration {}", process.getTitel(), project.getTitel(), e);
+                exported = false;
+            }
             results.put(project, exported);
             process.setProjekt(defaultProject);
         }
@@ -155,6 +203,73 @@ public class WienerLibraryExportPlugin extends ExportMets implements IExportPlug
         }
     }
 
+    /**
+     * Apply the configuration of the current project of the process
+     */
+    private void configure(Process process) {
+        configureGlossary(process);
+        configureTei(process);
+        configureCopy(process);
+        configureStaging(process);
+        enricher.load(GLOSSARY_VOCABULARY_NAME);
+    }
+
+    private void configureGlossary(Process process) {
+        HierarchicalConfiguration config = getConfig(process);
+        // the shared glossary cache applies them to this export only
+        enricher.setTimeToLive(Duration.ofSeconds(config.getLong("glossary/@cacheTimeToLive", GlossarySnapshotCache.DEFAULT_TIME_TO_LIVE.getSeconds())));
+        enricher.setProbeInterval(
+                Duration.ofSeconds(config.getLong("glossary/@probeInterval", GlossarySnapshotCache.DEFAULT_PROBE_INTERVAL.getSeconds())));
+        String indexFile = config.getString("glossary/@indexFile", "");
+        enricher.setIndexFile(StringUtils.isBlank(indexFile) ? null : Paths.get(indexFile));
+        enricher.setOffline(config.getBoolean("glossary/@offline", false));
+
+        String cacheFolder = config.getString("enrichmentCache/@folder", "");
+        EnrichmentCache enrichmentCache = EnrichmentCache.getInstance(StringUtils.isBlank(cacheFolder) ? null : Paths.get(cacheFolder));
+        enrichmentCache.setMaxEntries(config.getInt("enrichmentCache/@maxEntries", EnrichmentCache.DEFAULT_MAX_ENTRIES));
+        // megabytes of heap, java strings use up to two bytes per character
+        enrichmentCache.setMaxMemoryCharacters(Math.max(0, config.getLong("enrichmentCache/@memory", 0)) * 1024 * 1024 / 2);
+        enricher.setEnrichmentCache(enrichmentCache.isEnabled() ? enrichmentCache : null);
+        enrichmentThreads = Math.max(1, config.getInt("enrichment/@threads", 1));
+    }
+
+    private void configureTei(Process process) {
+        HierarchicalConfiguration config = getConfig(process);
+        long timeout = config.getLong("tei/@regexTimeout", DEFAULT_TEI_REGEX_TIMEOUT.getSeconds());
+        teiRegexTimeout = timeout > 0 ? Duration.ofSeconds(timeout) : null;
+        teiThreads = Math.max(1, config.getInt("tei/@threads", 1));
+        teiSync = config.getBoolean("tei/@sync", false);
+        teiCompact = config.getBoolean("tei/@compact", true);
+    }
+
+    private void configureCopy(Process process) {
+        HierarchicalConfiguration config = getConfig(process);
+        copyThreads = Math.max(1, config.getInt("copy/@threads", 1));
+        String mode = config.getString("copy/@linkMode", "copy");
+        try {
+            linkMode = LinkMode.valueOf(mode.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("Unknown link mode {}, files are copied", mode);
+            linkMode = LinkMode.COPY;
+        }
+    }
+
+    private void configureStaging(Process process) {
+        HierarchicalConfiguration config = getConfig(process);
+        String folder = config.getString("staging/@folder", "");
+        stagingFolder = StringUtils.isBlank(folder) ? null : Paths.get(folder);
+        stagingQuota = Math.max(0, config.getLong("staging/@quota", 0)) * 1024 * 1024;
+        incremental = config.getBoolean("incremental/@enabled", false);
+    }
+
+    /**
+     * @return the configured staging area, the staging folder inside the export folder if there is none. Only there the staged files can be moved
+     *         to the export folder by renaming them
+     */
+    private StagingArea getStagingArea(File exportfolder) {
+        return new StagingArea(stagingFolder == null ? exportfolder.toPath().resolve(STAGING_FOLDER_NAME) : stagingFolder, stagingQuota);
+    }
+
     private Collection<Project> getConfiguredProjects(Process process, VariableReplacer replacer) {
         List<HierarchicalConfiguration> allTargetConfigs = getConfig(process).configurationsAt("target");
         Set<Project> projects = new TreeSet<>();
@@ -183,22 +298,22 @@ public class WienerLibraryExportPlugin extends ExportMets implements IExportPlug
         return projects;
     }
 
-    public boolean exportFiles(Process process, String atsPpnBand, VariableReplacer replacer)
+    /**
+     * Export the process to the current project of the process
+     *
+     * @param process
+     * @param atsPpnBand
+     * @param replacer
+     * @param digitalDocument the metadata of the process, it is changed by the export
+     * @return true if the export was successful
+     */
+    public boolean exportFiles(Process process, String atsPpnBand, VariableReplacer replacer, DigitalDocument digitalDocument)
             throws PreferencesException, IOException, WriteException, InterruptedException, SwapException, DAOException,
             TypeNotAllowedForParentException {
 
         ExportFileformat newfile = MetadatenHelper.getExportFileformatByName(process.getProjekt().getFileFormatDmsExport(), process.getRegelsatz());
-        Fileformat gdzfile;
-        try {
-            gdzfile = process.readMetadataFile();
-            newfile.setDigitalDocument(gdzfile.getDigitalDocument());
-            gdzfile = newfile;
-
-        } catch (Exception e) {
-            Helper.setFehlerMeldung(Helper.getTranslation("exportError") + process.getTitel(), e);
-            log.error("Export abgebrochen, xml-LeseFehler", e);
-            return false;
-        }
+        newfile.setDigitalDocument(digitalDocument);
+        Fileformat gdzfile = newfile;
 
         String path = replacer.replace(process.getProjekt().getDmsImportRootPath());
         File exportfolder = new File(path);
@@ -216,7 +331,26 @@ public class WienerLibraryExportPlugin extends ExportMets implements IExportPlug
         enrichtTranslations(logical, dsList);
 
         // start export of images and fulltext
-        Path tempFolder = Files.createTempDirectory(atsPpnBand + "__");
+        StagingArea stagingArea = getStagingArea(exportfolder);
+        Path tempFolder = stagingArea.create(atsPpnBand);
+        try {
+            incrementalExport = incremental ? new IncrementalExport(exportfolder.toPath(), tempFolder, atsPpnBand) : null;
+            return exportStagedFiles(process, atsPpnBand, gdzfile, exportfolder, logical, tempFolder);
+        } finally {
+            incrementalExport = null;
+            // the staged files are removed whether the export succeeded or not
+            stagingArea.release(tempFolder);
+        }
+    }
+
+    /**
+     * Prepare the images, fulltext files and the METS file in the staging folder and move them to the export folder
+     *
+     * @return true if the export was successful
+     */
+    private boolean exportStagedFiles(Process process, String atsPpnBand, Fileformat gdzfile, File exportfolder, DocStruct logical,
+            Path tempFolder) throws IOException, InterruptedException, PreferencesException, WriteException, SwapException, DAOException,
+            TypeNotAllowedForParentException {
         try {
             if (this.exportWithImages) {
                 imageDownload(process, tempFolder.toFile(), atsPpnBand, EXPORT_IMAGE_DIRECTORY_SUFFIX);
@@ -231,11 +365,15 @@ public class WienerLibraryExportPlugin extends ExportMets implements IExportPlug
             Helper.setFehlerMeldung("Export canceled, Process: " + process.getTitel(), e);
             return false;
         }
-        moveContent(tempFolder.toFile(), exportfolder);
+        if (incrementalExport != null) {
+            incrementalExport.publish();
+        } else {
+            moveContent(tempFolder.toFile(), exportfolder);
+        }
 
         // now export the Mets file
         File exportFile = new File(exportfolder + File.separator + atsPpnBand + ".xml");
-        File tempFile = Files.createTempFile(atsPpnBand + "__", ".xml").toFile();
+        File tempFile = Files.createTempFile(tempFolder, atsPpnBand + "__", ".xml").toFile();
         writeMetsFile(process, tempFile.getAbsolutePath(), gdzfile, false);
         if (tempFile.exists()) {
             log.debug("Temporary export mets file written: " + tempFile.getAbsolutePath());
@@ -243,23 +381,30 @@ public class WienerLibraryExportPlugin extends ExportMets implements IExportPlug
             Helper.setFehlerMeldung("Export canceled, Process: " + process.getTitel(), "Failed to write temporary export mets file");
             return false;
         }
-        addFileGroup(tempFile.getAbsolutePath(), getTEIFiles(exportfolder + File.separator + atsPpnBand + "_tei"), getFileGroupName(process),
-                getFileGroupFolder(process), getFileGroupMimeType(process));
-        log.debug("Moving temporary file " + tempFile + " to export file location " + exportFile);
-        FileUtils.moveFile(tempFile, exportFile);
+        File stagedFile = tempFolder.resolve(exportFile.getName()).toFile();
+        log.debug("Writing temporary file " + tempFile + " with TEI file group to " + stagedFile);
+        if (addFileGroup(tempFile, stagedFile, getTEIFiles(exportfolder + File.separator + atsPpnBand + "_tei"), getFileGroupName(process),
+                getFileGroupFolder(process), getFileGroupMimeType(process))) {
+            Files.delete(tempFile.toPath());
+        } else {
+            // export the mets file without TEI file group
+            Files.deleteIfExists(stagedFile.toPath());
+            stagedFile = tempFile;
+        }
+        log.debug("Moving " + stagedFile + " to export file location " + exportFile);
+        publish(stagedFile.toPath(), exportFile.toPath());
         return true;
     }
 
-    public void enrichtTranslations(DocStruct logical, List<DocStruct> dsList) {
+    public void enrichtTranslations(DocStruct logical, List<DocStruct> dsList) throws InterruptedException {
+        List<Metadata> englishMetadata = new ArrayList<>();
         for (DocStruct ds : dsList) {
             boolean foundEnglishTranscription = false;
             if (ds.getAllMetadata() != null) {
 
                 for (Metadata md : ds.getAllMetadata()) {
                     if (md.getType().getName().equals("Transcription_en") || md.getType().getName().equals("Translation_en")) {
-                        String value = md.getValue();
-                        String newValue = enrichMetadataWithVocabulary(value);
-                        md.setValue(newValue);
+                        englishMetadata.add(md);
                         foundEnglishTranscription = true;
                     }
                 }
@@ -279,11 +424,63 @@ public class WienerLibraryExportPlugin extends ExportMets implements IExportPlug
             }
 
         }
+        enrichMetadata(englishMetadata);
     }
 
     /**
-     * @param exportfolder
-     * @param tempFolder
+     * Enrich the values of the given metadata with the glossary, concurrently if more than one enrichment thread is configured
+     *
+     * @param mdList
+     * @throws InterruptedException if the export thread was interrupted while waiting for the enrichment
+     */
+    void enrichMetadata(List<Metadata> mdList) throws InterruptedException {
+        if (enrichmentThreads > 1 && mdList.size() > 1) {
+            enrichInParallel(mdList);
+        } else {
+            for (Metadata md : mdList) {
+                md.setValue(enrichMetadataWithVocabulary(md.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Enrich the values of the given metadata concurrently. The enriched values are written back in the order of the list, so the result is the
+     * same as with serial enrichment. Values whose enrichment failed on a worker thread are enriched again on the export thread, so a failure
+     * there is passed on to the export instead of leaving the value unenriched
+     * 
+     * @param mdList
+     * @throws InterruptedException if the export thread was interrupted, the running enrichments are cancelled
+     */
+    private void enrichInParallel(List<Metadata> mdList) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(enrichmentThreads, mdList.size()));
+        try {
+            List<Future<String>> results = new ArrayList<>(mdList.size());
+            for (Metadata md : mdList) {
+                String value = md.getValue();
+                results.add(executor.submit(() -> enrichMetadataWithVocabulary(value)));
+            }
+            for (int i = 0; i < mdList.size(); i++) {
+                Metadata md = mdList.get(i);
+                String enriched;
+                try {
+                    enriched = results.get(i).get();
+                } catch (ExecutionException e) {
+                    log.warn("Error enriching metadata {} concurrently, enriching it again on the export thread", md.getType().getName(),
+                            e.getCause());
+                    enriched = enrichMetadataWithVocabulary(md.getValue());
+                }
+                md.setValue(enriched);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Move the folders of the staging folder into the export folder. They are renamed if both are on the same file system
+     *
+     * @param source staging folder
+     * @param target export folder
      * @throws IOException
      */
     public void moveContent(File source, File target) throws IOException {
@@ -295,7 +492,23 @@ public class WienerLibraryExportPlugin extends ExportMets implements IExportPlug
             }
         });
         for (File file : tempDirs) {
-            FileUtils.moveDirectory(file, new File(target, file.getName()));
+            File destination = new File(target, file.getName());
+            try {
+                Files.move(file.toPath(), destination.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                FileUtils.moveDirectory(file, destination);
+            }
+        }
+    }
+
+    /**
+     * Move a staged file to its final location. It is renamed if both are on the same file system, so it appears there complete or not at all
+     */
+    private static void publish(Path stagedFile, Path target) throws IOException {
+        try {
+            Files.move(stagedFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(stagedFile, target, StandardCopyOption.REPLACE_EXISTING);
         }
     }
 
@@ -314,55 +527,27 @@ public class WienerLibraryExportPlugin extends ExportMets implements IExportPlug
         }
     }
 
-    private boolean addFileGroup(String exportFile, File[] teiFiles, String name, String path, String mimeType) {
-
-        SAXBuilder parser = new SAXBuilder();
-        Document metsDoc = null;
-        try {
-            metsDoc = parser.build(exportFile);
-        } catch (JDOMException | IOException e) {
-            Helper.setFehlerMeldung("error while parsing amd file");
-            log.error("error while parsing amd file", e);
-            return false;
-        }
-        Element logFileGroup = new Element("fileGrp", metsNamespace);
-        Element fileSec = metsDoc.getRootElement().getChild("fileSec", metsNamespace);
-        if (fileSec == null) {
-            fileSec = new Element("fileSec", metsNamespace);
-            metsDoc.getRootElement().addContent(fileSec);
-        }
-        fileSec.addContent(logFileGroup);
-
-        logFileGroup.setAttribute("USE", name);
-
-        int index = 0;
-        for (File teiFile : teiFiles) {
-
-            Element file = new Element("file", metsNamespace);
-            file.setAttribute("MIMETYPE", mimeType);
-            file.setAttribute("ID", "FILE_" + new DecimalFormat("0000").format(index) + "_" + name);
-            logFileGroup.addContent(file);
-
-            Element flocat = new Element("FLocat", metsNamespace);
-            flocat.setAttribute("href", path + teiFile.getName(), xlink);
-            flocat.setAttribute("LOCTYPE", "URL");
-            file.addContent(flocat);
-
-            index++;
+    /**
+     * Copy the METS file to the export file and add the file group of the TEI files on the way. The METS file is streamed, so the export file is
+     * written in a single pass
+     *
+     * @return true if the export file contains the file group
+     */
+    private boolean addFileGroup(File metsFile, File exportFile, File[] teiFiles, String name, String path, String mimeType) {
+        List<String> locations = new ArrayList<>();
+        if (teiFiles != null) {
+            for (File teiFile : teiFiles) {
+                locations.add(path + teiFile.getName());
+            }
         }
-
-        XMLOutputter outputter = new XMLOutputter(Format.getPrettyFormat());
-
         try {
-            FileOutputStream output = new FileOutputStream(exportFile);
-            outputter.output(metsDoc, output);
+            new MetsFileGroupInjector(name, mimeType, locations).inject(metsFile.toPath(), exportFile.toPath());
             return true;
         } catch (IOException e) {
             Helper.setFehlerMeldung("error while writing mets file");
             log.error("error while writing mets file", e);
             return false;
         }
-
     }
 
     private String getFileGroupFolder(Process process) {
@@ -432,33 +617,133 @@ public class WienerLibraryExportPlugin extends ExportMets implements IExportPlug
                 }
             }
         }
-        for (String language : texts.keySet()) {
-            String filename = title + "_tei_" + language + ".xml";
-            try {
-                writeTEIFile(exportFolder.resolve(filename), texts.get(language), language);
-            } catch (JDOMException e) {
-                FileUtils.deleteDirectory(exportFolder.toFile());
-                throw new WriteException("Error writing tei file '" + exportFolder.resolve(filename) + "'", e);
-                //					log.error("Error writing tei file '" + exportFolder.resolve(filename) + "'", e);
-            } catch (IOException e) {
-                FileUtils.deleteDirectory(exportFolder.toFile());
-                throw e;
-
+        // number of text segments which exceeded the time limit, by file
+        Map<Path, Integer> fallbackCounts = new TreeMap<>();
+        try {
+            if (teiThreads > 1 && texts.size() > 1) {
+                fallbackCounts.putAll(writeTEIFilesInParallel(exportFolder, title, texts));
+            } else {
+                for (Map.Entry<String, List<String>> entry : texts.entrySet()) {
+                    Path filepath = getTEIFile(exportFolder, title, entry.getKey());
+                    fallbackCounts.put(filepath, writeLanguageTEIFile(filepath, entry.getKey(), entry.getValue()));
+                }
             }
+        } catch (WriteException | IOException e) {
+            FileUtils.deleteDirectory(exportFolder.toFile());
+            throw e;
+        }
+        // the journal uses the database session of the export thread, so it is only written once all files are finished
+        for (Map.Entry<Path, Integer> entry : fallbackCounts.entrySet()) {
+            if (entry.getValue() > 0) {
+                String message = entry.getValue() + " text segments of " + entry.getKey().getFileName()
+                        + " exceeded the time limit for the title attribute search and were searched without regular expression";
+                log.warn(message);
+                Helper.addMessageToProcessJournal(process.getId(), LogType.WARN, message);
+            }
+        }
 
+    }
+
+    /**
+     * Write the TEI files of all languages at the same time. On the first failure, the remaining files are cancelled and the failure is thrown once
+     * no file is written anymore, so the export folder can be deleted safely
+     *
+     * @return the number of text segments which exceeded the time limit, by file
+     */
+    private Map<Path, Integer> writeTEIFilesInParallel(Path exportFolder, String title, Map<String, List<String>> texts)
+            throws WriteException, IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(teiThreads, texts.size()));
+        CompletionService<Map.Entry<Path, Integer>> completion = new ExecutorCompletionService<>(executor);
+        Map<Path, Integer> fallbackCounts = new HashMap<>();
+        try {
+            for (Map.Entry<String, List<String>> entry : texts.entrySet()) {
+                Path filepath = getTEIFile(exportFolder, title, entry.getKey());
+                completion.submit(() -> Map.entry(filepath, writeLanguageTEIFile(filepath, entry.getKey(), entry.getValue())));
+            }
+            for (int i = 0; i < texts.size(); i++) {
+                try {
+                    Map.Entry<Path, Integer> written = completion.take().get();
+                    fallbackCounts.put(written.getKey(), written.getValue());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof WriteException) {
+                        throw (WriteException) cause;
+                    } else if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new WriteException("Error writing tei files to '" + exportFolder + "'", cause);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Writing tei files to '" + exportFolder + "' was interrupted", e);
+        } finally {
+            executor.shutdownNow();
+            // the folder may only be removed after all running files are finished, so there is no time limit and an interrupt only ends the
+            // waiting once they are
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    if (executor.awaitTermination(TEI_SHUTDOWN_WARNING_INTERVAL.toSeconds(), TimeUnit.SECONDS)) {
+                        break;
+                    }
+                    log.warn("TEI files in {} are still being written", exportFolder);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
         }
+        return fallbackCounts;
+    }
 
+    private static Path getTEIFile(Path exportFolder, String title, String language) {
+        return exportFolder.resolve(title + "_tei_" + language + ".xml");
     }
 
-    private void writeTEIFile(Path filepath, List<String> list, String language) throws JDOMException, IOException {
-        TEIBuilder builder = new TEIBuilder().setLanguage(language);
+    /**
+     * @return the number of text segments which exceeded the time limit of the regular expressions
+     */
+    private int writeLanguageTEIFile(Path filepath, String language, List<String> list) throws WriteException, IOException {
+        try {
+            return writeTEIFile(filepath, list, language);
+        } catch (JDOMException e) {
+            throw new WriteException("Error writing tei file '" + filepath + "'", e);
+        }
+    }
+
+    /**
+     * Write the TEI file of one language
+     *
+     * @return the number of text segments which exceeded the time limit of the regular expressions, see {@link TEIBuilder#getFallbackCount()}
+     */
+    int writeTEIFile(Path filepath, List<String> list, String language) throws JDOMException, IOException {
+        TEIBuilder builder = new TEIBuilder().setLanguage(language).setTimeout(teiRegexTimeout).setPrettyPrint(!teiCompact);
         for (String text : list) {
             builder.addTextSegment(text);
         }
-        XMLOutputter writer = new XMLOutputter();
         log.debug("Write tei file to " + filepath);
-        writer.output(builder.build(), new FileWriter(filepath.toFile()));
+        try (TEIFileOutput output = new TEIFileOutput(filepath, teiSync)) {
+            builder.write(output.getWriter());
+            output.commit();
+        }
         log.debug(filepath + " written");
+        return builder.getFallbackCount();
+    }
+
+    /**
+     * Add a file to the copy batch, unless an incremental export finds it unchanged in the export folder
+     */
+    private void addExportFile(ParallelFileCopy copy, Path source, Path target) {
+        if (incrementalExport != null && incrementalExport.isUnchanged(source, target)) {
+            copy.remove(target);
+        } else {
+            copy.add(source, target);
+        }
     }
 
     /**
@@ -474,6 +759,7 @@ public class WienerLibraryExportPlugin extends ExportMets implements IExportPlug
      */
     public void fulltextDownload(Process process, File exportfolder, String atsPpnBand) throws IOException, InterruptedException, SwapException,
             DAOException {
+        ParallelFileCopy copy = new ParallelFileCopy(copyThreads, NIOFileUtils.STANDARD_COPY_OPTIONS).setLinkMode(linkMode);
 
         // download sources
         Path sources = Paths.get(process.getSourceDirectory());
@@ -485,7 +771,7 @@ public class WienerLibraryExportPlugin extends ExportMets implements IExportPlug
             List<Path> dateien = StorageProvider.getInstance().listFiles(process.getSourceDirectory());
             for (Path dir : dateien) {
                 Path meinZiel = Paths.get(destination.toString(), dir.getFileName().toString());
-                Files.copy(dir, meinZiel, NIOFileUtils.STANDARD_COPY_OPTIONS);
+                addExportFile(copy, dir, meinZiel);
             }
         }
 
@@ -503,11 +789,12 @@ public class WienerLibraryExportPlugin extends ExportMets implements IExportPlug
                     List<Path> files = StorageProvider.getInstance().listFiles(dir.toString());
                     for (Path file : files) {
                         Path target = Paths.get(destination.toString(), file.getFileName().toString());
-                        Files.copy(file, target, NIOFileUtils.STANDARD_COPY_OPTIONS);
+                        addExportFile(copy, file, target);
                     }
                 }
             }
         }
+        copy.copy();
     }
 
     /**
@@ -527,6 +814,7 @@ public class WienerLibraryExportPlugin extends ExportMets implements IExportPlug
 
         File tifOrdner = new File(process.getImagesTifDirectory(true));
         File zielTif = new File(exportfolder + File.separator + atsPpnBand + ordnerEndung);
+        ParallelFileCopy copy = new ParallelFileCopy(copyThreads, NIOFileUtils.STANDARD_COPY_OPTIONS).setLinkMode(linkMode);
 
         try {
             if (tifOrdner.exists() && tifOrdner.list().length > 0) {
@@ -549,7 +837,7 @@ public class WienerLibraryExportPlugin extends ExportMets implements IExportPlug
                 List<Path> files = StorageProvider.getInstance().listFiles(process.getImagesTifDirectory(true), NIOFileUtils.DATA_FILTER);
                 for (Path file : files) {
                     Path target = Paths.get(zielTif.toString(), file.getFileName().toString());
-                    Files.copy(file, target, NIOFileUtils.STANDARD_COPY_OPTIONS);
+                    addExportFile(copy, file, target);
                 }
             }
 
@@ -567,7 +855,7 @@ public class WienerLibraryExportPlugin extends ExportMets implements IExportPlug
                                 for (Path file : files) {
                                     Path target = Paths.get(zielTif.toString(), file.getFileName().toString());
 
-                                    Files.copy(file, target, NIOFileUtils.STANDARD_COPY_OPTIONS);
+                                    addExportFile(copy, file, target);
                                 }
                             }
                         }
@@ -588,12 +876,14 @@ public class WienerLibraryExportPlugin extends ExportMets implements IExportPlug
                             List<Path> files = StorageProvider.getInstance().listFiles(dir.toString());
                             for (Path file : files) {
                                 Path target = Paths.get(destination.toString(), file.getFileName().toString());
-                                Files.copy(file, target, NIOFileUtils.STANDARD_COPY_OPTIONS);
+                                addExportFile(copy, file, target);
                             }
                         }
                     }
                 }
             }
+            // all files are copied at once, a failure deletes the files copied so far
+            copy.copy();
         } catch (Throwable e) {
             FileUtils.deleteDirectory(zielTif);
             throw e;
@@ -0,0 +1,270 @@
+package de.intranda.goobi.utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.log4j.Logger;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Remembers enriched texts by a hash of the original text and the version of the glossary used for enrichment, so unchanged texts are never
+ * enriched twice. Recently used results are kept in memory if a memory limit is set, all results are stored in an optional cache folder which
+ * survives restarts. The least recently used entries are evicted from both levels when their limits are exceeded.
+ *
+ */
+public class EnrichmentCache {
+    private static final Logger logger = Logger.getLogger(EnrichmentCache.class);
+
+    public static final int DEFAULT_MAX_ENTRIES = 100000;
+    /** the memory level is disabled unless a limit is set */
+    public static final long DEFAULT_MAX_MEMORY_CHARACTERS = 0;
+    /** number of writes after which the cache folder is checked for entries to evict */
+    static final int EVICTION_INTERVAL = 1000;
+    /** suffix of entries which are still being written */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final EnrichmentCache MEMORY_ONLY = new EnrichmentCache(null);
+    private static final Map<Path, EnrichmentCache> INSTANCES = new ConcurrentHashMap<>();
+
+    private final Path directory;
+    private final LinkedHashMap<String, String> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryCharacters;
+    private final AtomicInteger writesSinceEviction = new AtomicInteger(EVICTION_INTERVAL);
+    private final Object evictionLock = new Object();
+
+    /** maximum number of entries in the cache folder */
+    @Getter
+    @Setter
+    private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+    /** maximum size of all texts kept in memory */
+    @Getter
+    private volatile long maxMemoryCharacters = DEFAULT_MAX_MEMORY_CHARACTERS;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Create a cache which is not shared, use {@link #getInstance(Path)} to get the shared one
+     *
+     * @param directory cache folder, null to only keep results in memory
+     */
+    EnrichmentCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param directory cache folder, null to only keep results in memory. Without memory limit such a cache does not store anything
+     * @return the cache shared by all exports using the given folder
+     */
+    public static EnrichmentCache getInstance(Path directory) {
+        if (directory == null) {
+            return MEMORY_ONLY;
+        }
+        return INSTANCES.computeIfAbsent(directory.toAbsolutePath().normalize(), EnrichmentCache::new);
+    }
+
+    /**
+     * Get the enriched version of a text from the cache or create and store it
+     *
+     * @param glossaryVersion version of the glossary used by the enrichment
+     * @param text the text to enrich
+     * @param enrichment creates the enriched text if it is not cached yet. If it throws an exception, nothing is cached
+     * @return the enriched text
+     */
+    public String get(String glossaryVersion, String text, UnaryOperator<String> enrichment) {
+        String key = createKey(glossaryVersion, text);
+        String result = readFromMemory(key);
+        if (result == null && directory != null) {
+            result = readFromDisk(key);
+            if (result != null) {
+                writeToMemory(key, result);
+            }
+        }
+        if (result != null) {
+            hits.incrementAndGet();
+            return result;
+        }
+        misses.incrementAndGet();
+        result = enrichment.apply(text);
+        writeToMemory(key, result);
+        if (directory != null) {
+            writeToDisk(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Limit the size of the texts kept in memory. Entries exceeding a smaller limit are evicted at once
+     *
+     * @param maxMemoryCharacters the maximum number of characters of all texts in memory, 0 to keep no texts in memory
+     */
+    public synchronized void setMaxMemoryCharacters(long maxMemoryCharacters) {
+        this.maxMemoryCharacters = maxMemoryCharacters;
+        evictFromMemory();
+    }
+
+    /**
+     * @return true if the cache stores anything, either in a folder or in memory
+     */
+    public boolean isEnabled() {
+        return directory != null || maxMemoryCharacters > 0;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private synchronized String readFromMemory(String key) {
+        return memory.get(key);
+    }
+
+    private synchronized void writeToMemory(String key, String value) {
+        if (maxMemoryCharacters <= 0) {
+            return;
+        }
+        String previous = memory.put(key, value);
+        if (previous != null) {
+            memoryCharacters -= previous.length();
+        }
+        memoryCharacters += value.length();
+        evictFromMemory();
+    }
+
+    private void evictFromMemory() {
+        if (maxMemoryCharacters <= 0) {
+            memory.clear();
+            memoryCharacters = 0;
+            return;
+        }
+        Iterator<String> eldest = memory.values().iterator();
+        while (memoryCharacters > maxMemoryCharacters && eldest.hasNext()) {
+            memoryCharacters -= eldest.next().length();
+            eldest.remove();
+        }
+    }
+
+    private String readFromDisk(String key) {
+        Path file = getFile(key);
+        try {
+            String value = Files.readString(file, StandardCharsets.UTF_8);
+            // the modification time marks the last use of an entry for eviction
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return value;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            logger.warn("Cannot read enrichment cache entry " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, String value) {
+        Path file = getFile(key);
+        try {
+            Files.createDirectories(file.getParent());
+            Path tempFile = Files.createTempFile(file.getParent(), key, TEMP_SUFFIX);
+            try {
+                Files.writeString(tempFile, value, StandardCharsets.UTF_8);
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot write enrichment cache entry " + file + ": " + e.getMessage());
+            return;
+        }
+        if (writesSinceEviction.incrementAndGet() >= EVICTION_INTERVAL) {
+            writesSinceEviction.set(0);
+            evict();
+        }
+    }
+
+    /**
+     * Delete the least recently used entries from the cache folder until 90% of the maximum number of entries is reached
+     */
+    private void evict() {
+        synchronized (evictionLock) {
+            evictLeastRecentlyUsed();
+        }
+    }
+
+    private void evictLeastRecentlyUsed() {
+        Map<Path, Long> lastModified;
+        try (Stream<Path> stream = Files.walk(directory, 2)) {
+            // entries which are still being written by other threads are neither counted nor deleted
+            lastModified = stream.filter(Files::isRegularFile)
+                    .filter(file -> !file.getFileName().toString().endsWith(TEMP_SUFFIX))
+                    .collect(Collectors.toMap(Function.identity(), EnrichmentCache::getLastModified));
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("Cannot list enrichment cache folder " + directory + ": " + e.getMessage());
+            return;
+        }
+        if (lastModified.size() <= maxEntries) {
+            return;
+        }
+        List<Path> files = new ArrayList<>(lastModified.keySet());
+        files.sort(Comparator.comparing(lastModified::get));
+        int toDelete = files.size() - maxEntries * 9 / 10;
+        logger.debug("Evicting " + toDelete + " entries from enrichment cache " + directory);
+        for (Path file : files.subList(0, toDelete)) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                logger.warn("Cannot delete enrichment cache entry " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static long getLastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private Path getFile(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    private static String createKey(String glossaryVersion, String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.valueOf(glossaryVersion).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // every java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
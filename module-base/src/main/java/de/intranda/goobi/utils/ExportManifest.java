@@ -0,0 +1,228 @@
+package de.intranda.goobi.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+import lombok.Data;
+
+/**
+ * List of the files of an export with their size, modification time and SHA-256 hash, and the size and modification time their source had when
+ * it was exported. The paths are relative to the export folder and always use <code>/</code> as separator.
+ *
+ * The manifest is stored as text file, one file per line with hash, size, modification time in milliseconds, source size, source modification
+ * time and path separated by tabs. Files without source, like generated files, have -1 as source size and modification time. Manifests of the
+ * first format without the source fields are read as well, their files have no source.
+ *
+ */
+public class ExportManifest {
+    private static final Logger logger = Logger.getLogger(ExportManifest.class);
+
+    private static final String HEADER = "# export manifest 2";
+    private static final String HEADER_WITHOUT_SOURCE = "# export manifest 1";
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    @Data
+    public static class Entry {
+        private final long size;
+        private final long modified;
+        private final String hash;
+        /** size of the source when it was exported, -1 if the file has no source */
+        private final long sourceSize;
+        /** modification time of the source in milliseconds when it was exported, -1 if the file has no source */
+        private final long sourceModified;
+
+        public Entry(long size, long modified, String hash) {
+            this(size, modified, hash, -1, -1);
+        }
+
+        public Entry(long size, long modified, String hash, long sourceSize, long sourceModified) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+            this.sourceSize = sourceSize;
+            this.sourceModified = sourceModified;
+        }
+
+        /**
+         * @param source attributes of the source of the file at the time it was exported
+         * @return this entry with the size and modification time of the given source
+         */
+        public Entry withSource(BasicFileAttributes source) {
+            return new Entry(size, modified, hash, source.size(), source.lastModifiedTime().toMillis());
+        }
+
+        /**
+         * @return this entry without source, e.g. for a generated file
+         */
+        public Entry withoutSource() {
+            return new Entry(size, modified, hash);
+        }
+    }
+
+    /**
+     * Read a manifest
+     *
+     * @param file
+     * @return the manifest, an empty manifest if the file does not exist or cannot be read
+     */
+    public static ExportManifest read(Path file) {
+        ExportManifest manifest = new ExportManifest();
+        if (!Files.exists(file)) {
+            return manifest;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            boolean withSource = HEADER.equals(line);
+            if (!withSource && !HEADER_WITHOUT_SOURCE.equals(line)) {
+                logger.warn("Unknown export manifest format in " + file + ", all files are exported again");
+                return manifest;
+            }
+            int fieldCount = withSource ? 6 : 4;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", fieldCount);
+                if (fields.length == fieldCount && withSource) {
+                    manifest.put(fields[5], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[0], Long.parseLong(fields[3]),
+                            Long.parseLong(fields[4])));
+                } else if (fields.length == fieldCount) {
+                    manifest.put(fields[3], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[0]));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            logger.warn("Cannot read export manifest " + file + ", all files are exported again", e);
+            manifest.entries.clear();
+        }
+        return manifest;
+    }
+
+    /**
+     * Write the manifest. The file is replaced atomically, so it always describes either the previous or the current export
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void write(Path file) throws IOException {
+        Path tempFile = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                writer.write(HEADER);
+                writer.newLine();
+                for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    Entry value = entry.getValue();
+                    writer.write(value.getHash() + "\t" + value.getSize() + "\t" + value.getModified() + "\t" + value.getSourceSize() + "\t"
+                            + value.getSourceModified() + "\t" + entry.getKey());
+                    writer.newLine();
+                }
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Create the entry of a file
+     *
+     * @param file
+     * @return size, modification time and hash of the file, without source
+     * @throws IOException
+     */
+    public static Entry describe(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (in.read(buffer) >= 0) {
+                // the stream updates the digest
+            }
+        }
+        return new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), HexFormat.of().formatHex(digest.digest()));
+    }
+
+    /**
+     * @param file
+     * @param entry
+     * @return true if the file exists and has the size and modification time of the entry
+     */
+    public static boolean matches(Path file, Entry entry) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return attributes.isRegularFile() && attributes.size() == entry.getSize()
+                    && attributes.lastModifiedTime().toMillis() == entry.getModified();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param source
+     * @param entry
+     * @return true if the entry has a source and the given source has the size and modification time recorded for it
+     */
+    public static boolean matchesSource(Path source, Entry entry) {
+        if (entry.getSourceSize() < 0) {
+            return false;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+            return attributes.isRegularFile() && attributes.size() == entry.getSourceSize()
+                    && attributes.lastModifiedTime().toMillis() == entry.getSourceModified();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param relativePath a path relative to the export folder
+     * @return the path as it is used in the manifest
+     */
+    public static String toKey(Path relativePath) {
+        StringBuilder key = new StringBuilder();
+        for (Path name : relativePath) {
+            if (key.length() > 0) {
+                key.append('/');
+            }
+            key.append(name.toString());
+        }
+        return key.toString();
+    }
+
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    public void put(String path, Entry entry) {
+        entries.put(path, entry);
+    }
+
+    public Set<String> getPaths() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
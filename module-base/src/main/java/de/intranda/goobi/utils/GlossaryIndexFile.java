@@ -0,0 +1,173 @@
+package de.intranda.goobi.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Stores a {@link GlossarySnapshot} as compact binary file: the keyword automaton and the pre-rendered notes. The file is memory mapped when it is
+ * read, so a snapshot is available without downloading the vocabulary and without building the automaton again. Keywords and notes are decoded
+ * from the mapped file when they are accessed.
+ *
+ */
+public class GlossaryIndexFile {
+    private static final Logger logger = Logger.getLogger(GlossaryIndexFile.class);
+
+    private static final int MAGIC = 0x574C4749; // "WLGI"
+    private static final int FORMAT_VERSION = 1;
+
+    private GlossaryIndexFile() {
+    }
+
+    /**
+     * Write the snapshot to the given file. The file is replaced atomically, so concurrent readers either see the old or the new index
+     *
+     * @param snapshot
+     * @param file
+     * @throws IOException
+     */
+    public static void write(GlossarySnapshot snapshot, Path file) throws IOException {
+        Path tempFile = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                writeString(out, snapshot.getVocabularyName());
+                out.writeLong(snapshot.getVocabularyId());
+                out.writeLong(snapshot.getRecordCount());
+                writeString(out, snapshot.getVersion());
+                out.writeInt(snapshot.getKeywords().size());
+                snapshot.getKeywordMatcher().write(out);
+                writeStrings(out, snapshot.getKeywords());
+                writeStrings(out, snapshot.getNotes());
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.debug("Wrote glossary index " + file + " for " + snapshot);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Map the given index file into memory
+     *
+     * @param file
+     * @return the snapshot stored in the file
+     * @throws IOException if the file cannot be read or is no glossary index
+     */
+    public static GlossarySnapshot read(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(file + " is not a glossary index");
+            }
+            int formatVersion = buffer.getInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("Unsupported format version " + formatVersion + " of glossary index " + file);
+            }
+            String vocabularyName = readString(buffer);
+            long vocabularyId = buffer.getLong();
+            long recordCount = buffer.getLong();
+            String version = readString(buffer);
+            int keywordCount = buffer.getInt();
+            KeywordMatcher matcher = KeywordMatcher.read(buffer);
+            List<String> keywords = readStrings(buffer, keywordCount);
+            List<String> notes = readStrings(buffer, keywordCount);
+            return new GlossarySnapshot(vocabularyName, vocabularyId, recordCount, keywords, notes, matcher, version);
+        } catch (RuntimeException e) {
+            throw new IOException("Glossary index " + file + " is corrupt", e);
+        }
+    }
+
+    /**
+     * Strings are stored as table of byte offsets and lengths followed by the UTF-8 encoded data. A length of -1 marks a null value
+     */
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (String value : values) {
+            if (value == null) {
+                out.writeInt(data.size());
+                out.writeInt(-1);
+            } else {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(data.size());
+                out.writeInt(bytes.length);
+                data.write(bytes);
+            }
+        }
+        out.writeInt(data.size());
+        data.writeTo(out);
+    }
+
+    private static List<String> readStrings(ByteBuffer buffer, int count) {
+        int[] offsets = new int[count];
+        int[] lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = buffer.getInt();
+            lengths[i] = buffer.getInt();
+        }
+        int dataLength = buffer.getInt();
+        ByteBuffer data = buffer.slice().limit(dataLength);
+        buffer.position(buffer.position() + dataLength);
+        return new MappedStringList(data, offsets, lengths);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read only list which decodes its values from the mapped file on access
+     */
+    private static class MappedStringList extends AbstractList<String> {
+        private final ByteBuffer data;
+        private final int[] offsets;
+        private final int[] lengths;
+
+        private MappedStringList(ByteBuffer data, int[] offsets, int[] lengths) {
+            this.data = data;
+            this.offsets = offsets;
+            this.lengths = lengths;
+        }
+
+        @Override
+        public String get(int index) {
+            if (lengths[index] < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[lengths[index]];
+            // absolute bulk get, does not touch the position of the shared buffer
+            data.get(offsets[index], bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int size() {
+            return offsets.length;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package de.intranda.goobi.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+
+import lombok.Getter;
+
+/**
+ * Immutable state of a glossary vocabulary prepared for enrichment: the keywords in processing order, the note which is inserted for each keyword
+ * and the matcher to find them. A snapshot may be shared by any number of concurrent exports.
+ *
+ */
+@Getter
+public class GlossarySnapshot {
+
+    private final String vocabularyName;
+    private final long vocabularyId;
+    /** number of records the vocabulary contained when the snapshot was taken, used to detect changes */
+    private final long recordCount;
+    /** keywords in processing order, long keywords first */
+    private final List<String> keywords;
+    /** the note for the keyword with the same index, null if the keyword must not be enriched */
+    private final List<String> notes;
+    private final KeywordMatcher keywordMatcher;
+    /** hash over all keywords and notes, changes whenever the enrichment result may change */
+    private final String version;
+
+    public GlossarySnapshot(String vocabularyName, long vocabularyId, long recordCount, List<String> keywords, List<String> notes) {
+        this(vocabularyName, vocabularyId, recordCount, keywords, notes, new KeywordMatcher(keywords), generateVersion(keywords, notes));
+    }
+
+    /**
+     * Create a snapshot from an already built matcher, e.g. one read from a {@link GlossaryIndexFile}
+     */
+    GlossarySnapshot(String vocabularyName, long vocabularyId, long recordCount, List<String> keywords, List<String> notes,
+            KeywordMatcher keywordMatcher, String version) {
+        if (keywords.size() != notes.size()) {
+            throw new IllegalArgumentException("Expected one note per keyword but got " + keywords.size() + " keywords and " + notes.size() + " notes");
+        }
+        this.vocabularyName = vocabularyName;
+        this.vocabularyId = vocabularyId;
+        this.recordCount = recordCount;
+        this.keywords = Collections.unmodifiableList(keywords);
+        this.notes = Collections.unmodifiableList(notes);
+        this.keywordMatcher = keywordMatcher;
+        this.version = version;
+    }
+
+    public String getNote(int keywordIndex) {
+        return notes.get(keywordIndex);
+    }
+
+    private static String generateVersion(List<String> keywords, List<String> notes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (int i = 0; i < keywords.size(); i++) {
+                digest.update(String.valueOf(keywords.get(i)).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(String.valueOf(notes.get(i)).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // every java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "GlossarySnapshot [vocabulary=" + vocabularyName + ", records=" + recordCount + ", keywords=" + keywords.size() + ", version="
+                + version + "]";
+    }
+}
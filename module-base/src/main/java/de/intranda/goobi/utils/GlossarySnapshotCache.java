@@ -0,0 +1,170 @@
+package de.intranda.goobi.utils;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+import org.apache.log4j.Logger;
+
+import lombok.Getter;
+
+/**
+ * Process wide cache of {@link GlossarySnapshot}s, so that concurrent and consecutive exports share one prepared glossary instead of downloading
+ * the whole vocabulary for each export.
+ *
+ * A snapshot is reloaded when it is older than the time to live. In between, the number of records of the vocabulary is probed at most once per
+ * probe interval and the snapshot is reloaded early if the number changed. Both are passed with each access, so exports with different
+ * configurations share the cache without changing the settings of each other.
+ *
+ */
+public class GlossarySnapshotCache {
+    private static final Logger logger = Logger.getLogger(GlossarySnapshotCache.class);
+
+    public static final Duration DEFAULT_TIME_TO_LIVE = Duration.ofHours(1);
+    public static final Duration DEFAULT_PROBE_INTERVAL = Duration.ofMinutes(1);
+
+    private static final GlossarySnapshotCache INSTANCE = new GlossarySnapshotCache();
+
+    private final Map<String, CacheEntry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    public static GlossarySnapshotCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the current snapshot of the given vocabulary with the default time to live and probe interval
+     *
+     * @param vocabularyName name of the glossary vocabulary
+     * @param loader creates a new snapshot for a vocabulary name
+     * @param recordCountProbe returns the current number of records of the vocabulary of a snapshot
+     * @return the snapshot
+     */
+    public GlossarySnapshot get(String vocabularyName, Function<String, GlossarySnapshot> loader, ToLongFunction<GlossarySnapshot> recordCountProbe) {
+        return get(vocabularyName, DEFAULT_TIME_TO_LIVE, DEFAULT_PROBE_INTERVAL, loader, recordCountProbe);
+    }
+
+    /**
+     * Get the current snapshot of the given vocabulary, loading it if there is none or if the cached one is outdated
+     *
+     * @param vocabularyName name of the glossary vocabulary
+     * @param timeToLive maximum age of the snapshot for this access
+     * @param probeInterval time after which the record count of the vocabulary is checked again for this access
+     * @param loader creates a new snapshot for a vocabulary name
+     * @param recordCountProbe returns the current number of records of the vocabulary of a snapshot
+     * @return the snapshot
+     */
+    public GlossarySnapshot get(String vocabularyName, Duration timeToLive, Duration probeInterval, Function<String, GlossarySnapshot> loader,
+            ToLongFunction<GlossarySnapshot> recordCountProbe) {
+        CacheEntry entry = entries.get(vocabularyName);
+        if (entry != null && entry.isValid(timeToLive, probeInterval)) {
+            return entry.getSnapshot();
+        }
+        synchronized (locks.computeIfAbsent(vocabularyName, k -> new Object())) {
+            // another export may have refreshed the entry while we were waiting
+            entry = entries.get(vocabularyName);
+            if (entry != null && entry.isValid(timeToLive, probeInterval)) {
+                return entry.getSnapshot();
+            }
+            if (entry != null && !entry.isExpired(timeToLive)) {
+                if (isUnchanged(entry.getSnapshot(), recordCountProbe)) {
+                    entries.put(vocabularyName, entry.probed());
+                    return entry.getSnapshot();
+                }
+                logger.info("Glossary '" + vocabularyName + "' has changed. Reloading it");
+            }
+            try {
+                GlossarySnapshot snapshot = loader.apply(vocabularyName);
+                logger.debug("Loaded " + snapshot);
+                entries.put(vocabularyName, new CacheEntry(snapshot));
+                return snapshot;
+            } catch (RuntimeException e) {
+                if (entry == null) {
+                    throw e;
+                }
+                logger.error("Cannot reload glossary '" + vocabularyName + "'. Keep using " + entry.getSnapshot(), e);
+                entries.put(vocabularyName, new CacheEntry(entry.getSnapshot()));
+                return entry.getSnapshot();
+            }
+        }
+    }
+
+    /**
+     * Use a snapshot from another source for the given vocabulary, unless a snapshot is already cached. This allows to start with a snapshot read
+     * from a {@link GlossaryIndexFile} instead of downloading the vocabulary. The seeded snapshot is checked for changes like any other snapshot.
+     *
+     * @param vocabularyName name of the glossary vocabulary
+     * @param supplier creates the snapshot, failures are logged and ignored
+     */
+    public void seed(String vocabularyName, Supplier<GlossarySnapshot> supplier) {
+        if (entries.containsKey(vocabularyName)) {
+            return;
+        }
+        synchronized (locks.computeIfAbsent(vocabularyName, k -> new Object())) {
+            if (entries.containsKey(vocabularyName)) {
+                return;
+            }
+            try {
+                GlossarySnapshot snapshot = supplier.get();
+                logger.debug("Seeded glossary cache with " + snapshot);
+                entries.put(vocabularyName, new CacheEntry(snapshot));
+            } catch (RuntimeException e) {
+                logger.warn("Cannot seed glossary cache for '" + vocabularyName + "': " + e.getMessage());
+            }
+        }
+    }
+
+    private boolean isUnchanged(GlossarySnapshot snapshot, ToLongFunction<GlossarySnapshot> recordCountProbe) {
+        try {
+            return recordCountProbe.applyAsLong(snapshot) == snapshot.getRecordCount();
+        } catch (RuntimeException e) {
+            logger.warn("Cannot check glossary '" + snapshot.getVocabularyName() + "' for changes: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Remove the snapshot of the given vocabulary, the next access loads it again
+     *
+     * @param vocabularyName
+     */
+    public void invalidate(String vocabularyName) {
+        entries.remove(vocabularyName);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    private class CacheEntry {
+        @Getter
+        private final GlossarySnapshot snapshot;
+        private final long loaded;
+        private final long probed;
+
+        private CacheEntry(GlossarySnapshot snapshot) {
+            this(snapshot, System.currentTimeMillis(), System.currentTimeMillis());
+        }
+
+        private CacheEntry(GlossarySnapshot snapshot, long loaded, long probed) {
+            this.snapshot = snapshot;
+            this.loaded = loaded;
+            this.probed = probed;
+        }
+
+        private CacheEntry probed() {
+            return new CacheEntry(snapshot, loaded, System.currentTimeMillis());
+        }
+
+        private boolean isExpired(Duration timeToLive) {
+            return System.currentTimeMillis() - loaded >= timeToLive.toMillis();
+        }
+
+        private boolean isValid(Duration timeToLive, Duration probeInterval) {
+            return !isExpired(timeToLive) && System.currentTimeMillis() - probed < probeInterval.toMillis();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package de.intranda.goobi.utils;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Updates an existing export with the files of a new export, based on the {@link ExportManifest} of the previous export:
+ * <ul>
+ * <li>files whose source still has the size and modification time it had when the file was exported are not staged again, as long as the
+ * exported file is unchanged as well, see {@link #isUnchanged(Path, Path)}. The attributes of the source are recorded in the manifest, so the
+ * exported files need not have the modification time of their source</li>
+ * <li>staged files replace the exported files, unless their content is the one recorded in the manifest</li>
+ * <li>exported files which are neither staged nor unchanged are deleted, files in folders which are not part of the new export at all are kept</li>
+ * </ul>
+ * Without manifest all files are staged and published, and no file is deleted.
+ *
+ */
+public class IncrementalExport {
+    private static final Logger logger = Logger.getLogger(IncrementalExport.class);
+
+    private static final String MANIFEST_SUFFIX = ".manifest";
+
+    private final Path exportFolder;
+    private final Path stagingFolder;
+    private final Path manifestFile;
+    private final ExportManifest previous;
+    /** files which are not staged because the exported file is unchanged */
+    private final Set<String> unchanged = ConcurrentHashMap.newKeySet();
+    /** attributes of the sources of the staged files, read before they were staged */
+    private final Map<String, BasicFileAttributes> sources = new ConcurrentHashMap<>();
+
+    /**
+     * @param exportFolder folder the files are exported to
+     * @param stagingFolder folder the files are staged in, it has the same structure as the export folder
+     * @param title name of the exported process, the manifest of each process is stored in the export folder
+     */
+    public IncrementalExport(Path exportFolder, Path stagingFolder, String title) {
+        this.exportFolder = exportFolder.toAbsolutePath().normalize();
+        this.stagingFolder = stagingFolder.toAbsolutePath().normalize();
+        this.manifestFile = this.exportFolder.resolve("." + title + MANIFEST_SUFFIX);
+        this.previous = ExportManifest.read(manifestFile);
+    }
+
+    /**
+     * Check whether a file needs to be staged. It does not if the source has the size and modification time recorded for it in the manifest of
+     * the previous export, and if the exported file is unchanged since then. The file is kept in the export then. Otherwise the current attributes
+     * of the source are recorded for the manifest of this export, so this method must be called before the file is staged
+     *
+     * @param source file which would be copied to the target
+     * @param stagedTarget target in the staging folder
+     * @return true if the file is unchanged and does not need to be staged
+     */
+    public boolean isUnchanged(Path source, Path stagedTarget) {
+        String path = ExportManifest.toKey(stagingFolder.relativize(stagedTarget.toAbsolutePath().normalize()));
+        ExportManifest.Entry entry = previous.get(path);
+        if (entry != null && ExportManifest.matchesSource(source, entry) && ExportManifest.matches(exportFolder.resolve(path), entry)) {
+            unchanged.add(path);
+            sources.remove(path);
+            return true;
+        }
+        unchanged.remove(path);
+        try {
+            sources.put(path, Files.readAttributes(source, BasicFileAttributes.class));
+        } catch (IOException e) {
+            // the file is staged again next time, the copy reports the actual problem
+            sources.remove(path);
+        }
+        return false;
+    }
+
+    /**
+     * Move the staged files of all folders in the staging folder to the export folder, delete the files which are no longer part of the export
+     * and write the new manifest
+     *
+     * @return the manifest of the export
+     * @throws IOException
+     */
+    public ExportManifest publish() throws IOException {
+        ExportManifest manifest = new ExportManifest();
+        int replaced = 0;
+        for (Path staged : listStagedFiles()) {
+            String path = ExportManifest.toKey(stagingFolder.relativize(staged));
+            Path target = exportFolder.resolve(path);
+            ExportManifest.Entry entry = ExportManifest.describe(staged);
+            ExportManifest.Entry previousEntry = previous.get(path);
+            if (previousEntry != null && previousEntry.getHash().equals(entry.getHash()) && ExportManifest.matches(target, previousEntry)) {
+                // the same content was generated again, the exported file is kept
+                entry = previousEntry;
+            } else {
+                Files.createDirectories(target.getParent());
+                move(staged, target);
+                replaced++;
+            }
+            BasicFileAttributes source = sources.get(path);
+            manifest.put(path, source == null ? entry.withoutSource() : entry.withSource(source));
+            unchanged.remove(path);
+        }
+        for (String path : unchanged) {
+            manifest.put(path, previous.get(path));
+        }
+        Set<String> stagedFolders = listStagedFolders();
+        int deleted = 0;
+        for (String path : previous.getPaths()) {
+            Path file = exportFolder.resolve(path).normalize();
+            if (manifest.get(path) != null || !file.startsWith(exportFolder)) {
+                continue;
+            }
+            if (stagedFolders.contains(path.substring(0, Math.max(0, path.indexOf('/'))))) {
+                delete(file);
+                deleted++;
+            } else {
+                // e.g. the images of an export without images
+                manifest.put(path, previous.get(path));
+            }
+        }
+        manifest.write(manifestFile);
+        logger.debug("Exported " + replaced + " changed files to " + exportFolder + ", kept " + (manifest.size() - replaced) + " files, deleted "
+                + deleted + " files");
+        return manifest;
+    }
+
+    /**
+     * @return the regular files in the folders of the staging folder. Files directly in the staging folder are not part of the export
+     */
+    private List<Path> listStagedFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String folder : listStagedFolders()) {
+            try (Stream<Path> stream = Files.walk(stagingFolder.resolve(folder))) {
+                files.addAll(stream.filter(Files::isRegularFile).collect(Collectors.toList()));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * @return the names of the folders in the staging folder
+     */
+    private Set<String> listStagedFolders() throws IOException {
+        Set<String> folders = new TreeSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(stagingFolder, Files::isDirectory)) {
+            for (Path folder : stream) {
+                folders.add(folder.getFileName().toString());
+            }
+        }
+        return folders;
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Delete a file and the folders containing it if they are empty then
+     */
+    private void delete(Path file) throws IOException {
+        Files.deleteIfExists(file);
+        for (Path folder = file.getParent(); folder != null && !folder.equals(exportFolder) && folder.startsWith(exportFolder); folder =
+                folder.getParent()) {
+            if (!Files.isDirectory(folder)) {
+                continue;
+            }
+            try (DirectoryStream<Path> content = Files.newDirectoryStream(folder)) {
+                if (content.iterator().hasNext()) {
+                    return;
+                }
+            }
+            Files.delete(folder);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package de.intranda.goobi.utils;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds all occurrences of a fixed set of keywords in a single pass over a text (Aho-Corasick automaton).
+ *
+ * Matching follows the rules the regex based enrichment used before: keywords are compared case insensitive for US-ASCII letters only (like
+ * {@link java.util.regex.Pattern#CASE_INSENSITIVE} without unicode case) and an occurrence is only reported if it is neither preceded nor followed
+ * by a letter (a-z, A-Z, ä, ö, ü, ß). Keywords are taken literally.
+ *
+ * The automaton is stored in flat arrays. Instances are immutable and may be shared between threads.
+ *
+ */
+public class KeywordMatcher {
+
+    private static final String WORD_LETTERS = "äÄüÜöÖß";
+
+    /** offset of the first outgoing edge of each state within {@link #edgeChars}, one additional entry marks the end */
+    private final int[] edgeOffsets;
+    /** edge labels, sorted per state */
+    private final char[] edgeChars;
+    /** target state of each edge */
+    private final int[] edgeTargets;
+    /** failure link of each state */
+    private final int[] failure;
+    /** next state on the failure chain which ends a keyword, -1 if there is none */
+    private final int[] output;
+    /** index of the keyword ending in this state, -1 if no keyword ends here */
+    private final int[] keywordIndex;
+    /** length of the path from the root to this state */
+    private final int[] depth;
+
+    /**
+     * Build the automaton for the given keywords. The position of a keyword in the list is reported as keyword index for its matches. If two
+     * keywords are equal when ignoring case, only the first one is reported. Empty keywords are ignored.
+     *
+     * @param keywords
+     */
+    public KeywordMatcher(List<String> keywords) {
+        TrieNode root = new TrieNode(0);
+        for (int index = 0; index < keywords.size(); index++) {
+            String keyword = keywords.get(index);
+            if (keyword == null || keyword.isEmpty()) {
+                continue;
+            }
+            TrieNode node = root;
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = fold(keyword.charAt(i));
+                TrieNode child = node.children.get(c);
+                if (child == null) {
+                    child = new TrieNode(node.depth + 1);
+                    node.children.put(c, child);
+                }
+                node = child;
+            }
+            if (node.keywordIndex < 0) {
+                node.keywordIndex = index;
+            }
+        }
+
+        // number the states in breadth first order, this guarantees that failure links always point to already processed states
+        Deque<TrieNode> queue = new ArrayDeque<>();
+        List<TrieNode> ordered = new ArrayList<>();
+        root.id = 0;
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            TrieNode node = queue.poll();
+            ordered.add(node);
+            for (TrieNode child : node.children.values()) {
+                child.id = ordered.size() + queue.size();
+                queue.add(child);
+            }
+        }
+
+        int stateCount = ordered.size();
+        int edgeCount = stateCount - 1;
+        edgeOffsets = new int[stateCount + 1];
+        edgeChars = new char[edgeCount];
+        edgeTargets = new int[edgeCount];
+        failure = new int[stateCount];
+        output = new int[stateCount];
+        keywordIndex = new int[stateCount];
+        depth = new int[stateCount];
+
+        int edge = 0;
+        for (TrieNode node : ordered) {
+            edgeOffsets[node.id] = edge;
+            keywordIndex[node.id] = node.keywordIndex;
+            depth[node.id] = node.depth;
+            for (Map.Entry<Character, TrieNode> entry : node.children.entrySet()) {
+                edgeChars[edge] = entry.getKey();
+                edgeTargets[edge] = entry.getValue().id;
+                edge++;
+            }
+        }
+        edgeOffsets[stateCount] = edge;
+
+        failure[0] = 0;
+        output[0] = -1;
+        for (TrieNode node : ordered) {
+            for (Map.Entry<Character, TrieNode> entry : node.children.entrySet()) {
+                int child = entry.getValue().id;
+                int fail = node.id == 0 ? 0 : next(failure[node.id], entry.getKey());
+                failure[child] = fail;
+                output[child] = keywordIndex[fail] >= 0 ? fail : output[fail];
+            }
+        }
+    }
+
+    private KeywordMatcher(int[] edgeOffsets, char[] edgeChars, int[] edgeTargets, int[] failure, int[] output, int[] keywordIndex, int[] depth) {
+        this.edgeOffsets = edgeOffsets;
+        this.edgeChars = edgeChars;
+        this.edgeTargets = edgeTargets;
+        this.failure = failure;
+        this.output = output;
+        this.keywordIndex = keywordIndex;
+        this.depth = depth;
+    }
+
+    /**
+     * Write the automaton in the binary form read by {@link #read(ByteBuffer)}
+     *
+     * @param out
+     * @throws IOException
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(depth.length);
+        out.writeInt(edgeChars.length);
+        writeInts(out, edgeOffsets);
+        for (char c : edgeChars) {
+            out.writeChar(c);
+        }
+        writeInts(out, edgeTargets);
+        writeInts(out, failure);
+        writeInts(out, output);
+        writeInts(out, keywordIndex);
+        writeInts(out, depth);
+    }
+
+    /**
+     * Read an automaton written by {@link #write(DataOutput)}, starting at the current position of the buffer. The position is moved behind the
+     * automaton
+     *
+     * @param buffer
+     * @return the automaton
+     */
+    static KeywordMatcher read(ByteBuffer buffer) {
+        int stateCount = buffer.getInt();
+        int edgeCount = buffer.getInt();
+        int[] edgeOffsets = readInts(buffer, stateCount + 1);
+        char[] edgeChars = new char[edgeCount];
+        buffer.asCharBuffer().get(edgeChars);
+        buffer.position(buffer.position() + edgeCount * Character.BYTES);
+        int[] edgeTargets = readInts(buffer, edgeCount);
+        int[] failure = readInts(buffer, stateCount);
+        int[] output = readInts(buffer, stateCount);
+        int[] keywordIndex = readInts(buffer, stateCount);
+        int[] depth = readInts(buffer, stateCount);
+        return new KeywordMatcher(edgeOffsets, edgeChars, edgeTargets, failure, output, keywordIndex, depth);
+    }
+
+    private static void writeInts(DataOutput out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int length) {
+        int[] values = new int[length];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + length * Integer.BYTES);
+        return values;
+    }
+
+    /**
+     * Find all occurrences of the keywords within the given text which are not directly surrounded by letters. Occurrences may overlap each other.
+     * The matches are reported ordered by their end position, matches with the same end are reported longest first
+     *
+     * @param text
+     * @param consumer receives each match
+     */
+    public void findAll(CharSequence text, MatchConsumer consumer) {
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = next(state, fold(text.charAt(i)));
+            int candidate = keywordIndex[state] >= 0 ? state : output[state];
+            while (candidate > 0) {
+                int end = i + 1;
+                int start = end - depth[candidate];
+                if (isWordBoundary(text, start, end)) {
+                    consumer.accept(keywordIndex[candidate], start, end);
+                }
+                candidate = output[candidate];
+            }
+        }
+    }
+
+    private int next(int state, char c) {
+        while (true) {
+            int edge = findEdge(state, c);
+            if (edge >= 0) {
+                return edgeTargets[edge];
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = failure[state];
+        }
+    }
+
+    private int findEdge(int state, char c) {
+        int low = edgeOffsets[state];
+        int high = edgeOffsets[state + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midChar = edgeChars[mid];
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isWordBoundary(CharSequence text, int start, int end) {
+        return (start == 0 || !isWordLetter(text.charAt(start - 1))) && (end == text.length() || !isWordLetter(text.charAt(end)));
+    }
+
+    private static boolean isWordLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || WORD_LETTERS.indexOf(c) >= 0;
+    }
+
+    private static char fold(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * Receives the matches found by {@link KeywordMatcher#findAll(CharSequence, MatchConsumer)}
+     */
+    @FunctionalInterface
+    public interface MatchConsumer {
+        void accept(int keywordIndex, int start, int end);
+    }
+
+    private static class TrieNode {
+        private final Map<Character, TrieNode> children = new TreeMap<>();
+        private final int depth;
+        private int keywordIndex = -1;
+        private int id;
+
+        private TrieNode(int depth) {
+            this.depth = depth;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package de.intranda.goobi.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Copies a METS file and adds a file group to its <code>mets:fileSec</code> on the way. The document is streamed, so it is neither held in memory
+ * nor serialized a second time; the content of everything except the new file group is copied unchanged. If the document has no file section,
+ * one is added at the end of the root element.
+ *
+ */
+public class MetsFileGroupInjector {
+
+    public static final String METS_NAMESPACE = "http://www.loc.gov/METS/";
+    public static final String XLINK_NAMESPACE = "http://www.w3.org/1999/xlink";
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+    /** property of the jdk parser to keep CDATA sections, the transcriptions in the METS files are stored in them */
+    private static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    static {
+        // the METS files are written by ugh and have no dtd, external entities are never resolved
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, false);
+        if (INPUT_FACTORY.isPropertySupported(REPORT_CDATA)) {
+            INPUT_FACTORY.setProperty(REPORT_CDATA, true);
+        }
+    }
+
+    private final String use;
+    private final String mimeType;
+    private final List<String> locations;
+
+    /**
+     * @param use USE attribute of the file group
+     * @param mimeType MIMETYPE of all files
+     * @param locations the URL of each file
+     */
+    public MetsFileGroupInjector(String use, String mimeType, List<String> locations) {
+        this.use = use;
+        this.mimeType = mimeType;
+        this.locations = new ArrayList<>(locations);
+    }
+
+    /**
+     * Copy the METS file from source to target and add the file group
+     *
+     * @param source METS file
+     * @param target copy of the METS file with the file group, it is overwritten if it exists
+     * @throws IOException if the source cannot be read or parsed or the target cannot be written
+     */
+    public void inject(Path source, Path target) throws IOException {
+        try (InputStream in = Files.newInputStream(source); OutputStream out = Files.newOutputStream(target)) {
+            XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+            XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+            try {
+                copy(reader, writer);
+                writer.flush();
+            } finally {
+                writer.close();
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Cannot add file group " + use + " to METS file " + source, e);
+        }
+    }
+
+    private void copy(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+        int depth = 0;
+        boolean injected = false;
+        // the injected elements are indented like the children of the root element, they are not indented in a document without indentation
+        String indent = null;
+        // whitespace is held back until the next event, so the injected elements can be written in front of it
+        StringBuilder whitespace = new StringBuilder();
+        int event = reader.getEventType();
+        while (true) {
+            if (depth > 0 && event == XMLStreamConstants.CHARACTERS && reader.isWhiteSpace()) {
+                if (indent == null && depth == 1) {
+                    String data = reader.getText();
+                    indent = data.substring(Math.max(data.lastIndexOf('\n'), data.lastIndexOf('\r')) + 1);
+                }
+                whitespace.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                event = reader.next();
+                continue;
+            }
+            if (event == XMLStreamConstants.END_ELEMENT && !injected
+                    && (depth == 1 || depth == 2 && isMets(reader, "fileSec"))) {
+                if (depth == 1) {
+                    writeFileSection(writer, depth, indent);
+                } else {
+                    writeFileGroup(writer, depth, indent);
+                }
+                injected = true;
+            }
+            if (whitespace.length() > 0) {
+                writer.writeCharacters(whitespace.toString());
+                whitespace.setLength(0);
+            }
+            switch (event) {
+                case XMLStreamConstants.START_DOCUMENT:
+                    // the copy is always written as UTF-8, so it has to declare it
+                    writer.writeStartDocument("UTF-8", reader.getVersion() == null ? "1.0" : reader.getVersion());
+                    writer.writeCharacters("\n");
+                    break;
+                case XMLStreamConstants.START_ELEMENT:
+                    if (!copyStartElement(reader, writer)) {
+                        // the reader is already positioned at the first content of the element
+                        depth++;
+                        event = reader.getEventType();
+                        continue;
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    writer.writeEndElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.CDATA:
+                    writer.writeCData(reader.getText());
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    writer.writeComment(reader.getText());
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+                    break;
+                case XMLStreamConstants.END_DOCUMENT:
+                    writer.writeEndDocument();
+                    return;
+                default:
+                    break;
+            }
+            event = reader.next();
+        }
+    }
+
+    /**
+     * Copy the start element the reader is positioned at, with its namespace declarations and attributes in their original order. An element
+     * without content is written as empty element
+     *
+     * @return true if the element was empty, the reader is positioned at its end element then and at the first content of the element otherwise
+     */
+    private static boolean copyStartElement(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+        String prefix = reader.getPrefix() == null ? "" : reader.getPrefix();
+        String localName = reader.getLocalName();
+        String namespace = reader.getNamespaceURI() == null ? "" : reader.getNamespaceURI();
+        List<String[]> namespaces = new ArrayList<>();
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            namespaces.add(new String[] { reader.getNamespacePrefix(i), reader.getNamespaceURI(i) });
+        }
+        List<String[]> attributes = new ArrayList<>();
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            attributes.add(new String[] { reader.getAttributePrefix(i), reader.getAttributeNamespace(i), reader.getAttributeLocalName(i),
+                    reader.getAttributeValue(i) });
+        }
+        boolean empty = reader.next() == XMLStreamConstants.END_ELEMENT;
+        if (empty) {
+            writer.writeEmptyElement(prefix, localName, namespace);
+        } else {
+            writer.writeStartElement(prefix, localName, namespace);
+        }
+        for (String[] declaration : namespaces) {
+            if (declaration[0] == null || declaration[0].isEmpty()) {
+                writer.writeDefaultNamespace(declaration[1]);
+            } else {
+                writer.writeNamespace(declaration[0], declaration[1]);
+            }
+        }
+        for (String[] attribute : attributes) {
+            if (attribute[1] == null || attribute[1].isEmpty()) {
+                writer.writeAttribute(attribute[2], attribute[3]);
+            } else {
+                writer.writeAttribute(attribute[0], attribute[1], attribute[2], attribute[3]);
+            }
+        }
+        return empty;
+    }
+
+    private void writeFileSection(XMLStreamWriter writer, int depth, String indent) throws XMLStreamException {
+        indent(writer, depth, indent);
+        writeStartElement(writer, METS_NAMESPACE, "fileSec", "mets");
+        writeFileGroup(writer, depth + 1, indent);
+        indent(writer, depth, indent);
+        writer.writeEndElement();
+    }
+
+    private void writeFileGroup(XMLStreamWriter writer, int depth, String indent) throws XMLStreamException {
+        DecimalFormat format = new DecimalFormat("0000");
+        indent(writer, depth, indent);
+        writeStartElement(writer, METS_NAMESPACE, "fileGrp", "mets");
+        writer.writeAttribute("USE", use);
+        for (int index = 0; index < locations.size(); index++) {
+            indent(writer, depth + 1, indent);
+            writeStartElement(writer, METS_NAMESPACE, "file", "mets");
+            writer.writeAttribute("MIMETYPE", mimeType);
+            writer.writeAttribute("ID", "FILE_" + format.format(index) + "_" + use);
+            indent(writer, depth + 2, indent);
+            writeStartElement(writer, METS_NAMESPACE, "FLocat", "mets");
+            String xlinkPrefix = writer.getPrefix(XLINK_NAMESPACE);
+            if (xlinkPrefix == null) {
+                xlinkPrefix = "xlink";
+                writer.writeNamespace(xlinkPrefix, XLINK_NAMESPACE);
+            }
+            writer.writeAttribute(xlinkPrefix, XLINK_NAMESPACE, "href", locations.get(index));
+            writer.writeAttribute("LOCTYPE", "URL");
+            writer.writeEndElement();
+            indent(writer, depth + 1, indent);
+            writer.writeEndElement();
+        }
+        indent(writer, depth, indent);
+        writer.writeEndElement();
+    }
+
+    /**
+     * Write a start element with the prefix the namespace is bound to in the document, the namespace is declared if it is not bound yet
+     */
+    private static void writeStartElement(XMLStreamWriter writer, String namespace, String localName, String defaultPrefix) throws XMLStreamException {
+        String prefix = writer.getPrefix(namespace);
+        if (prefix != null) {
+            writer.writeStartElement(prefix, localName, namespace);
+        } else {
+            writer.writeStartElement(defaultPrefix, localName, namespace);
+            writer.writeNamespace(defaultPrefix, namespace);
+        }
+    }
+
+    private static boolean isMets(XMLStreamReader reader, String localName) {
+        return METS_NAMESPACE.equals(reader.getNamespaceURI()) && localName.equals(reader.getLocalName());
+    }
+
+    private static void indent(XMLStreamWriter writer, int depth, String indent) throws XMLStreamException {
+        if (indent != null && !indent.isEmpty()) {
+            writer.writeCharacters("\n" + indent.repeat(depth));
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package de.intranda.goobi.utils;
+
+import java.io.IOException;
+import java.nio.file.CopyOption;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Copies a batch of files with a fixed number of threads. Either all files are copied or none: after the first failure no further copy is
+ * started, and once the running copies are finished all files of the batch copied so far are deleted again.
+ *
+ * If a target is added more than once, only the last source is copied to it, like copying the files one after another would leave it.
+ *
+ * With {@link LinkMode#LINK} the targets are created as hard links of their sources where possible, so no data is copied if source and target are
+ * on the same file system. The files are copied if the file system does not support it. Once links turned out to be impossible between two file
+ * systems, the remaining files between them are copied right away, other failures only affect the file itself.
+ *
+ */
+public class ParallelFileCopy {
+    private static final Logger logger = Logger.getLogger(ParallelFileCopy.class);
+
+    /** interval of the warnings while waiting for running copies after a failure, the copied files are only deleted once they are finished */
+    private static final Duration SHUTDOWN_WARNING_INTERVAL = Duration.ofMinutes(1);
+
+    public enum LinkMode {
+        /** copy every file */
+        COPY,
+        /** create hard links, copy the files if links cannot be created */
+        LINK
+    }
+
+    private final int threads;
+    private final CopyOption[] options;
+    private LinkMode linkMode = LinkMode.COPY;
+    /** source and target file store of the links which cannot be created in this batch */
+    private final Set<List<FileStore>> unlinkable = ConcurrentHashMap.newKeySet();
+    /** file store of each folder containing sources or targets of this batch */
+    private final Map<Path, FileStore> fileStores = new ConcurrentHashMap<>();
+    /** the source of each target in the order they were added */
+    private final Map<Path, Path> jobs = new LinkedHashMap<>();
+    private final List<Path> started = new ArrayList<>();
+
+    /**
+     * @param threads maximum number of files copied at the same time, with 1 the files are copied on the calling thread
+     * @param options options of {@link Files#copy(Path, Path, CopyOption...)}
+     */
+    public ParallelFileCopy(int threads, CopyOption... options) {
+        this.threads = Math.max(1, threads);
+        this.options = options.clone();
+    }
+
+    public ParallelFileCopy setLinkMode(LinkMode linkMode) {
+        this.linkMode = linkMode;
+        return this;
+    }
+
+    public ParallelFileCopy add(Path source, Path target) {
+        jobs.remove(target);
+        jobs.put(target, source);
+        return this;
+    }
+
+    /**
+     * Remove the copy to the given target from the batch
+     *
+     * @param target
+     * @return this batch
+     */
+    public ParallelFileCopy remove(Path target) {
+        jobs.remove(target);
+        return this;
+    }
+
+    public int size() {
+        return jobs.size();
+    }
+
+    /**
+     * Copy all files added so far. The batch is empty afterwards, also if the copy failed
+     *
+     * @throws IOException the first failure, all copied files are deleted
+     * @throws InterruptedException if the calling thread was interrupted, all copied files are deleted
+     */
+    public void copy() throws IOException, InterruptedException {
+        try {
+            if (threads == 1 || jobs.size() <= 1) {
+                for (Map.Entry<Path, Path> job : jobs.entrySet()) {
+                    copy(job.getValue(), job.getKey());
+                }
+            } else {
+                copyInParallel();
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            deleteCopies();
+            throw e;
+        } finally {
+            jobs.clear();
+            unlinkable.clear();
+            fileStores.clear();
+            synchronized (started) {
+                started.clear();
+            }
+        }
+    }
+
+    private void copyInParallel() throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, jobs.size()));
+        CompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+        try {
+            for (Map.Entry<Path, Path> job : jobs.entrySet()) {
+                completion.submit(() -> {
+                    copy(job.getValue(), job.getKey());
+                    return null;
+                });
+            }
+            for (int i = 0; i < jobs.size(); i++) {
+                try {
+                    completion.take().get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IOException("Error copying files", cause);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            awaitTermination(executor);
+        }
+    }
+
+    /**
+     * Wait until all running copies are finished. The copied files may only be deleted afterwards, so there is no time limit and an interrupt
+     * only ends the waiting once they are
+     */
+    private static void awaitTermination(ExecutorService executor) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(SHUTDOWN_WARNING_INTERVAL.toSeconds(), TimeUnit.SECONDS)) {
+                    break;
+                }
+                logger.warn("Files are still being copied after " + SHUTDOWN_WARNING_INTERVAL.toSeconds() + " seconds");
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void copy(Path source, Path target) throws IOException {
+        synchronized (started) {
+            started.add(target);
+        }
+        if (linkMode == LinkMode.LINK && link(source, target)) {
+            return;
+        }
+        Files.copy(source, target, options);
+    }
+
+    /**
+     * @return true if the target was created as hard link of the source
+     */
+    private boolean link(Path source, Path target) {
+        List<FileStore> stores = getFileStores(source, target);
+        if (stores != null && unlinkable.contains(stores)) {
+            return false;
+        }
+        if (stores != null && !stores.get(0).equals(stores.get(1))) {
+            // links cannot span file systems
+            unlinkable.add(stores);
+            return false;
+        }
+        try {
+            if (Arrays.asList(options).contains(StandardCopyOption.REPLACE_EXISTING)) {
+                Files.deleteIfExists(target);
+            }
+            Files.createLink(target, source);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            // the copy fails the same way
+            return false;
+        } catch (UnsupportedOperationException e) {
+            logger.debug("Links are not supported for " + target + ", copying the files instead");
+            if (stores != null) {
+                unlinkable.add(stores);
+            }
+            return false;
+        } catch (IOException | SecurityException e) {
+            // for example missing permissions for this file, the next file is linked again
+            logger.debug("Cannot link " + target + " to " + source + ", copying the file instead: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * @return the file stores of the folders of source and target, null if they cannot be determined
+     */
+    private List<FileStore> getFileStores(Path source, Path target) {
+        try {
+            return List.of(getFileStore(source.toAbsolutePath().getParent()), getFileStore(target.toAbsolutePath().getParent()));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private FileStore getFileStore(Path folder) throws IOException {
+        FileStore store = fileStores.get(folder);
+        if (store == null) {
+            // looking up the file store reads the mount table, so it is done once per folder
+            store = Files.getFileStore(folder);
+            fileStores.put(folder, store);
+        }
+        return store;
+    }
+
+    private void deleteCopies() {
+        synchronized (started) {
+            for (Path target : started) {
+                try {
+                    Files.deleteIfExists(target);
+                } catch (IOException e) {
+                    logger.warn("Cannot delete partially copied file " + target, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package de.intranda.goobi.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Process wide cache of compiled regular expressions, so that conversions which apply the same expressions to every text compile each of them
+ * only once. The least recently used patterns are dropped when the cache is full.
+ *
+ */
+public class PatternCache {
+
+    public static final int DEFAULT_MAX_SIZE = 512;
+
+    private static final PatternCache INSTANCE = new PatternCache(DEFAULT_MAX_SIZE);
+
+    private final Map<String, Pattern> patterns;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxSize maximum number of cached patterns
+     */
+    public PatternCache(int maxSize) {
+        patterns = new LinkedHashMap<>(64, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public static PatternCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Shortcut for {@link #get(String)} of the shared instance
+     *
+     * @param regex
+     * @return the compiled pattern
+     */
+    public static Pattern compile(String regex) {
+        return INSTANCE.get(regex);
+    }
+
+    /**
+     * Get the compiled pattern for the given expression, compiling it if it is not cached yet
+     *
+     * @param regex
+     * @return the compiled pattern
+     */
+    public Pattern get(String regex) {
+        Pattern pattern;
+        synchronized (patterns) {
+            pattern = patterns.get(regex);
+        }
+        if (pattern != null) {
+            hits.incrementAndGet();
+            return pattern;
+        }
+        misses.incrementAndGet();
+        // compile outside of the lock, in the rare case of a concurrent miss the pattern is just compiled twice
+        pattern = Pattern.compile(regex);
+        synchronized (patterns) {
+            patterns.put(regex, pattern);
+        }
+        return pattern;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        synchronized (patterns) {
+            return patterns.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (patterns) {
+            patterns.clear();
+        }
+    }
+}
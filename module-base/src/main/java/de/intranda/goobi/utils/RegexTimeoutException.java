@@ -0,0 +1,14 @@
+package de.intranda.goobi.utils;
+
+/**
+ * Thrown by {@link TimeLimitedCharSequence} if a regular expression did not finish within its time limit
+ *
+ */
+public class RegexTimeoutException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public RegexTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,210 @@
+package de.intranda.goobi.utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Folder in which exports are prepared before they are moved to their destination. Each export gets its own folder named
+ * <code>&lt;title&gt;__&lt;random&gt;</code>, which is deleted by {@link #release(Path)} whether the export succeeded or not.
+ *
+ * Each staging folder contains a lock file, which is locked as long as the export uses the folder and names the JVM which created it. Folders
+ * left behind by a crashed export are deleted the first time a staging area is used in this JVM: all folders of the naming scheme which were last
+ * modified before the JVM started and whose lock file is missing or not locked anymore. Folders of running exports on other machines sharing the
+ * staging area are kept, as are all folders if the file system cannot tell whether they are locked.
+ *
+ * A quota limits the size of all staged data, no new export is started while it is exceeded.
+ *
+ */
+public class StagingArea {
+    private static final Logger logger = Logger.getLogger(StagingArea.class);
+
+    private static final String SEPARATOR = "__";
+    /** names of the staging folders, {@link Files#createTempDirectory(Path, String, java.nio.file.attribute.FileAttribute...)} appends digits */
+    private static final Pattern FOLDER_NAME = Pattern.compile(".+" + SEPARATOR + "\\d+");
+    /** lock file in each staging folder, it is not part of the export because only the folders in a staging folder are exported */
+    private static final String LOCK_FILE = ".lock";
+    /** the roots which were already searched for orphaned folders */
+    private static final Set<Path> SWEPT_ROOTS = ConcurrentHashMap.newKeySet();
+    /** the open lock files of the staging folders used by this JVM */
+    private static final Map<Path, FileChannel> LOCKS = new ConcurrentHashMap<>();
+
+    private final Path root;
+    private final long quota;
+
+    /**
+     * @param root folder containing the staging folders, it is created if it does not exist
+     * @param quota maximum size of all staged files in bytes, 0 for no limit
+     */
+    public StagingArea(Path root, long quota) {
+        this.root = root.toAbsolutePath().normalize();
+        this.quota = quota;
+    }
+
+    /**
+     * Create a new staging folder
+     *
+     * @param title name of the exported process, it is the prefix of the folder name
+     * @return the new folder
+     * @throws IOException if the folder cannot be created or the quota is exceeded
+     */
+    public Path create(String title) throws IOException {
+        Files.createDirectories(root);
+        if (SWEPT_ROOTS.add(root)) {
+            sweep(FileTime.fromMillis(ManagementFactory.getRuntimeMXBean().getStartTime()));
+        }
+        if (quota > 0) {
+            long size = getSize();
+            if (size >= quota) {
+                throw new IOException("Staging area " + root + " is full, " + size + " of " + quota + " bytes are used");
+            }
+        }
+        Path folder = Files.createTempDirectory(root, title + SEPARATOR);
+        try {
+            lock(folder);
+        } catch (IOException | RuntimeException e) {
+            release(folder);
+            throw e;
+        }
+        return folder;
+    }
+
+    /**
+     * Create the lock file of a new staging folder and keep it locked until the folder is released
+     */
+    private static void lock(Path folder) throws IOException {
+        FileChannel channel = FileChannel.open(folder.resolve(LOCK_FILE), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        LOCKS.put(folder, channel);
+        channel.write(ByteBuffer.wrap(ManagementFactory.getRuntimeMXBean().getName().getBytes(StandardCharsets.UTF_8)));
+        try {
+            channel.tryLock();
+        } catch (IOException e) {
+            // e.g. a network file system without locks. The sweep cannot check the lock there either, so it keeps the folder
+            logger.warn("Cannot lock staging folder " + folder + ", it is not removed automatically if the export crashes", e);
+        }
+    }
+
+    /**
+     * Delete a staging folder with all its content. Failures are logged, the folder is removed by the next sweep then
+     *
+     * @param folder folder created by {@link #create(String)}
+     */
+    public void release(Path folder) {
+        FileChannel lock = LOCKS.remove(folder);
+        if (lock != null) {
+            try {
+                lock.close();
+            } catch (IOException e) {
+                logger.warn("Cannot unlock staging folder " + folder, e);
+            }
+        }
+        try {
+            delete(folder);
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("Cannot delete staging folder " + folder, e);
+        }
+    }
+
+    /**
+     * Delete all staging folders which were last modified before the given time and are not used by an export anymore
+     *
+     * @param before
+     * @return the number of deleted folders
+     */
+    public int sweep(FileTime before) {
+        int count = 0;
+        try (DirectoryStream<Path> folders = Files.newDirectoryStream(root, path -> FOLDER_NAME.matcher(path.getFileName().toString()).matches())) {
+            for (Path folder : folders) {
+                BasicFileAttributes attributes = Files.readAttributes(folder, BasicFileAttributes.class);
+                if (attributes.isDirectory() && attributes.lastModifiedTime().compareTo(before) < 0 && !isInUse(folder)) {
+                    logger.info("Deleting orphaned staging folder " + folder);
+                    release(folder);
+                    count++;
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot search staging area " + root + " for orphaned folders", e);
+        }
+        return count;
+    }
+
+    /**
+     * @return true if the lock file of the folder is locked by this or another JVM, or if that cannot be checked. Folders without lock file were
+     *         left behind before their export could lock them
+     */
+    private static boolean isInUse(Path folder) {
+        if (LOCKS.containsKey(folder)) {
+            // never open a second channel, closing it would release the lock of this JVM on some systems
+            return true;
+        }
+        Path lockFile = folder.resolve(LOCK_FILE);
+        if (!Files.exists(lockFile)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE)) {
+            return channel.tryLock() == null;
+        } catch (OverlappingFileLockException e) {
+            return true;
+        } catch (IOException e) {
+            logger.warn("Cannot check whether staging folder " + folder + " is in use, it is kept", e);
+            return true;
+        }
+    }
+
+    /**
+     * @return the size of all staged files in the staging area in bytes, without the lock files
+     */
+    public long getSize() throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(file -> !LOCK_FILE.equals(String.valueOf(file.getFileName()))).mapToLong(StagingArea::size).sum();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    private static long size(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return attributes.isRegularFile() ? attributes.size() : 0;
+        } catch (NoSuchFileException e) {
+            // deleted in the meantime
+            return 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void delete(Path folder) throws IOException {
+        if (!Files.exists(folder)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(folder)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
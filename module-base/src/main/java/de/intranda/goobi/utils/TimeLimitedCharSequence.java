@@ -0,0 +1,70 @@
+package de.intranda.goobi.utils;
+
+import java.time.Duration;
+
+/**
+ * Character sequence which aborts regular expressions running on it once a deadline has passed or the thread was interrupted. A
+ * {@link java.util.regex.Matcher} reads its input only through {@link #charAt(int)}, so even a pattern which backtracks catastrophically stops
+ * shortly after the deadline with a {@link RegexTimeoutException}.
+ *
+ */
+public class TimeLimitedCharSequence implements CharSequence {
+
+    /** number of character reads between two checks of the clock */
+    private static final int CHECK_INTERVAL = 4096;
+
+    private final CharSequence text;
+    private final long deadline;
+    /** character reads until the next check of the clock, the first read checks it */
+    private int readsUntilCheck;
+
+    /**
+     * @param text the wrapped text
+     * @param deadline deadline in the time base of {@link System#nanoTime()}
+     */
+    public TimeLimitedCharSequence(CharSequence text, long deadline) {
+        this.text = text;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Wrap the text with a deadline the given time from now
+     *
+     * @param text
+     * @param timeout
+     * @return the wrapped text
+     */
+    public static TimeLimitedCharSequence withTimeout(CharSequence text, Duration timeout) {
+        return new TimeLimitedCharSequence(text, System.nanoTime() + timeout.toNanos());
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (--readsUntilCheck < 0) {
+            readsUntilCheck = CHECK_INTERVAL;
+            if (System.nanoTime() - deadline > 0) {
+                throw new RegexTimeoutException("Regular expression exceeded its time limit");
+            }
+            if (Thread.currentThread()
+                    .isInterrupted()) {
+                throw new RegexTimeoutException("Regular expression was interrupted");
+            }
+        }
+        return text.charAt(index);
+    }
+
+    @Override
+    public int length() {
+        return text.length();
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new TimeLimitedCharSequence(text.subSequence(start, end), deadline);
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+}
@@ -2,20 +2,26 @@ package de.intranda.goobi.utils;
 
 import io.goobi.vocabulary.exchange.Vocabulary;
 import io.goobi.workflow.api.vocabulary.VocabularyAPIManager;
+import io.goobi.workflow.api.vocabulary.hateoas.VocabularyRecordPageResult;
 import io.goobi.workflow.api.vocabulary.helper.ExtendedVocabularyRecord;
 import lombok.Setter;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.log4j.Logger;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.BiFunction;
 import java.util.function.Function;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 
 /**
@@ -27,96 +33,285 @@ import java.util.regex.Pattern;
 public class VocabularyEnricher {
     private static final Logger logger = Logger.getLogger(VocabularyEnricher.class);
 
+    private static final String SPAN_START = "<span>";
+    private static final String SPAN_END = "</span>";
+    /** number of vocabulary records requested at once while loading the glossary */
+    private static final int RECORD_PAGE_SIZE = 500;
+
+    private static final ThreadLocal<MatchBuffer> MATCH_BUFFER = ThreadLocal.withInitial(MatchBuffer::new);
+
     private Function<String, Long> vocabularyIdResolver = name -> VocabularyAPIManager.getInstance()
             .vocabularies()
             .findByName(name)
             .getId();
-    private Function<Long, List<ExtendedVocabularyRecord>> recordResolver = id -> VocabularyAPIManager.getInstance()
+    private BiFunction<Long, Integer, VocabularyRecordPageResult> recordPageResolver = (id, page) -> VocabularyAPIManager.getInstance()
+            .vocabularyRecords()
+            .list(id)
+            .pageSize(RECORD_PAGE_SIZE)
+            .page(page)
+            .request();
+
+    private Function<Long, Long> recordCountResolver = id -> VocabularyAPIManager.getInstance()
             .vocabularyRecords()
             .list(id)
-            .all()
+            .pageSize(1)
             .request()
-            .getContent();
+            .getPage()
+            .getTotalElements();
+
+    /**
+     * optional binary index of the glossary. It is used at startup instead of downloading the vocabulary and it is updated whenever the vocabulary
+     * was downloaded
+     */
+    @Setter
+    private Path indexFile;
+    /** only use the index file and never contact the vocabulary server */
+    @Setter
+    private boolean offline;
 
-    private long vocabularyId;
-    private Map<String, ExtendedVocabularyRecord> keywordMapping;
-    private List<String> keywordProcessingOrder;
+    /** optional cache of enriched texts */
+    @Setter
+    private EnrichmentCache enrichmentCache;
 
+    /** maximum age of the shared glossary snapshot used by this enricher */
+    @Setter
+    private Duration timeToLive = GlossarySnapshotCache.DEFAULT_TIME_TO_LIVE;
+    /** time after which this enricher checks the shared glossary snapshot for changes */
+    @Setter
+    private Duration probeInterval = GlossarySnapshotCache.DEFAULT_PROBE_INTERVAL;
+
+    private GlossarySnapshot snapshot;
+
+    /**
+     * Prepare the enrichment with the given vocabulary. The prepared vocabulary is shared with other exports through the
+     * {@link GlossarySnapshotCache}
+     *
+     * @param vocabularyName
+     */
     public void load(String vocabularyName) {
-        this.vocabularyId = vocabularyIdResolver.apply(vocabularyName);
-        this.keywordMapping = generateKeywordMapping();
-        this.keywordProcessingOrder = generateKeywordProcessingOrder();
+        GlossarySnapshotCache cache = GlossarySnapshotCache.getInstance();
+        if (offline) {
+            // without a vocabulary server the index file is reloaded whenever the time to live of the cached snapshot has expired
+            this.snapshot = cache.get(vocabularyName, timeToLive, probeInterval, name -> readIndexFile(), GlossarySnapshot::getRecordCount);
+        } else {
+            if (indexFile != null && Files.isRegularFile(indexFile)) {
+                cache.seed(vocabularyName, this::readIndexFile);
+            }
+            this.snapshot = cache.get(vocabularyName, timeToLive, probeInterval, this::loadSnapshot,
+                    s -> recordCountResolver.apply(s.getVocabularyId()));
+        }
     }
 
-    private Map<String, ExtendedVocabularyRecord> generateKeywordMapping() {
-        Map<String, ExtendedVocabularyRecord> result = new HashMap<>();
-        List<ExtendedVocabularyRecord> allRecords = recordResolver.apply(this.vocabularyId);
-        allRecords.forEach(r -> {
+    private GlossarySnapshot readIndexFile() {
+        if (indexFile == null) {
+            throw new IllegalStateException("Offline glossary enrichment requires an index file");
+        }
+        try {
+            return GlossaryIndexFile.read(indexFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private GlossarySnapshot loadSnapshot(String vocabularyName) {
+        long vocabularyId = vocabularyIdResolver.apply(vocabularyName);
+        // load the records page by page and only keep the rendered note of each keyword, not the records themselves. The server may return
+        // fewer records per page than requested, so the number of pages is taken from the page information
+        Map<String, String> keywordMapping = new HashMap<>();
+        long recordCount = 0;
+        long totalRecords = -1;
+        int page = 0;
+        boolean morePages;
+        do {
+            VocabularyRecordPageResult result = recordPageResolver.apply(vocabularyId, page++);
+            List<ExtendedVocabularyRecord> records = result.getContent();
+            records.forEach(r -> addKeyword(r, keywordMapping));
+            recordCount += records.size();
+            if (result.getPage() != null) {
+                totalRecords = result.getPage().getTotalElements();
+                morePages = page < result.getPage().getTotalPages() && !records.isEmpty();
+            } else {
+                morePages = records.size() >= RECORD_PAGE_SIZE;
+            }
+        } while (morePages);
+        if (totalRecords >= 0 && recordCount != totalRecords) {
+            logger.warn("Loaded " + recordCount + " of " + totalRecords + " records of vocabulary " + vocabularyName
+                    + ", the glossary may be incomplete");
+        }
+
+        List<String> keywordProcessingOrder = generateKeywordProcessingOrder(keywordMapping);
+        List<String> keywordNotes = new ArrayList<>(keywordProcessingOrder.size());
+        keywordProcessingOrder.forEach(keyword -> keywordNotes.add(keywordMapping.get(keyword)));
+        GlossarySnapshot result = new GlossarySnapshot(vocabularyName, vocabularyId, recordCount, keywordProcessingOrder, keywordNotes);
+        if (indexFile != null) {
             try {
-                Optional<String> value = r.getFieldValueForDefinitionName("Keywords");
-                value.ifPresent(v -> result.putIfAbsent(v, r));
-            } catch (RuntimeException e) {
-                // Ignore missing values
+                GlossaryIndexFile.write(result, indexFile);
+            } catch (IOException e) {
+                logger.warn("Cannot write glossary index file " + indexFile, e);
             }
-        });
+        }
         return result;
     }
 
-    private List<String> generateKeywordProcessingOrder() {
-        List<String> result = new ArrayList<>(this.keywordMapping.keySet());
+    /**
+     * Add the note for the keyword of the given record. If several records have the same keyword, the first one is used. The note is null if the
+     * record has no title or description
+     */
+    private void addKeyword(ExtendedVocabularyRecord record, Map<String, String> keywordMapping) {
+        Optional<String> keyword;
+        try {
+            keyword = record.getFieldValueForDefinitionName("Keywords");
+        } catch (RuntimeException e) {
+            // Ignore missing values
+            return;
+        }
+        if (keyword.isEmpty() || keywordMapping.containsKey(keyword.get())) {
+            return;
+        }
+        Optional<String> title = record.getFieldValueForDefinitionName("Title");
+        Optional<String> description = record.getFieldValueForDefinitionName("Description");
+        if (title.isPresent() && description.isPresent()) {
+            keywordMapping.put(keyword.get(), "<note><term>" + title.get() + "</term>" + StringEscapeUtils.escapeHtml(description.get()) + "</note>");
+        } else {
+            logger.warn("Glossary entry for keyword '" + keyword.get() + "' has no title or description. Ignoring it");
+            keywordMapping.put(keyword.get(), null);
+        }
+    }
+
+    private List<String> generateKeywordProcessingOrder(Map<String, String> keywordMapping) {
+        List<String> result = new ArrayList<>(keywordMapping.keySet());
         //handle long keywords first to handle cases where a keyword is a substring of another one (e.g. 'Bentschen' in 'Neu-Bentschen')
         result.sort( (k1, k2) -> Integer.compare(k2.length(), k1.length()) );
         return result;
     }
 
+    /**
+     * @return the glossary snapshot used for enrichment, null if {@link #load(String)} has not been called yet
+     */
+    public GlossarySnapshot getSnapshot() {
+        return snapshot;
+    }
+
     /**
      * 
      * @param text
      * @return the given text enrichted with noted generated from the vocabulary
      */
     public String enrich(String text) {
-        String result = text;
         try {
-            List<TextReplacement> locations = new ArrayList<>();
-
-            String wordRegex = "(?<![a-zA-ZäÄüÜöÖß])({keyword})(?![a-zA-ZäÄüÜöÖß])";
-
-            for (String keyword : keywordProcessingOrder) {
-                ExtendedVocabularyRecord record = keywordMapping.get(keyword);
-                String title = record.getFieldValueForDefinitionName("Title").orElseThrow();
-                String description = record.getFieldValueForDefinitionName("Description").orElseThrow();
-                String note = "<note><term>" + title + "</term>" + StringEscapeUtils.escapeHtml(description) + "</note>";
-                String regex = wordRegex.replace("{keyword}", keyword);
-                Pattern p = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
-                Matcher m = p.matcher(result);
-                while (m.find()) {
-                    int start = m.start();
-                    int end = m.end();
-                    if(!withinLocation(start, end, locations)) {
-                        locations.add(new TextReplacement(start, end, note));
-                    }
-                }
-            }
-
-            Collections.sort(locations);
-            Collections.reverse(locations);
-            for (TextReplacement location : locations) {
-                String span = "<span>" + result.substring(location.getStart(), location.getEnd()) + location.getReplacement() + "</span>";
-                result = result.substring(0, location.getStart()) + span + result.substring(location.getEnd());
+            if (enrichmentCache != null) {
+                return enrichmentCache.get(snapshot.getVersion(), text, this::enrichText);
             }
-            return result;
+            return enrichText(text);
         } catch (Exception e) {
             logger.error("Can't load vocabulary management", e);
             return text;
         }
     }
 
-    private boolean withinLocation(int start, int end, List<TextReplacement> locations) {
-        for (TextReplacement location : locations) {
-            if(start <= location.getEnd() && end >= location.getStart()) {
-                return true;
+    private String enrichText(String text) {
+        MatchBuffer matches = MATCH_BUFFER.get();
+        matches.clear();
+        snapshot.getKeywordMatcher().findAll(text, matches);
+        if (matches.count == 0) {
+            return text;
+        }
+
+        // process the matches by keyword, long keywords first, and within a keyword by position. Like repeated regex searches the matches of one
+        // keyword never overlap each other
+        long[] order = matches.sortByKeyword();
+        BitSet covered = matches.covered;
+        BitSet accepted = matches.accepted;
+        int additionalLength = 0;
+        int currentKeyword = -1;
+        int currentKeywordEnd = -1;
+        for (int i = 0; i < matches.count; i++) {
+            int match = (int) order[i];
+            int keyword = matches.keywords[match];
+            int start = matches.starts[match];
+            int end = matches.ends[match];
+            if (keyword != currentKeyword) {
+                currentKeyword = keyword;
+                currentKeywordEnd = -1;
+            }
+            String note = snapshot.getNote(keyword);
+            if (note == null || start < currentKeywordEnd) {
+                continue;
             }
+            currentKeywordEnd = end;
+            // the match must neither overlap nor touch one of the accepted locations
+            int next = covered.nextSetBit(Math.max(0, start - 1));
+            if (next < 0 || next > end) {
+                covered.set(start, end);
+                accepted.set(match);
+                additionalLength += SPAN_START.length() + note.length() + SPAN_END.length();
+            }
+        }
+        if (accepted.isEmpty()) {
+            return text;
+        }
+
+        // accepted locations never overlap, so the match order by end position is also their order in the text
+        StringBuilder result = new StringBuilder(text.length() + additionalLength);
+        int position = 0;
+        for (int match = accepted.nextSetBit(0); match >= 0; match = accepted.nextSetBit(match + 1)) {
+            int start = matches.starts[match];
+            int end = matches.ends[match];
+            result.append(text, position, start)
+                    .append(SPAN_START)
+                    .append(text, start, end)
+                    .append(snapshot.getNote(matches.keywords[match]))
+                    .append(SPAN_END);
+            position = end;
+        }
+        result.append(text, position, text.length());
+        return result.toString();
+    }
+
+    /**
+     * Keyword matches of one text in primitive arrays. Each thread reuses its buffer for all texts it enriches
+     */
+    private static class MatchBuffer implements KeywordMatcher.MatchConsumer {
+        private int[] keywords = new int[64];
+        private int[] starts = new int[64];
+        private int[] ends = new int[64];
+        private long[] order = new long[64];
+        private int count;
+        /** text positions covered by accepted matches */
+        private final BitSet covered = new BitSet();
+        /** numbers of the accepted matches */
+        private final BitSet accepted = new BitSet();
+
+        @Override
+        public void accept(int keywordIndex, int start, int end) {
+            if (count == keywords.length) {
+                int length = count * 2;
+                keywords = Arrays.copyOf(keywords, length);
+                starts = Arrays.copyOf(starts, length);
+                ends = Arrays.copyOf(ends, length);
+                order = new long[length];
+            }
+            keywords[count] = keywordIndex;
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+        }
+
+        /**
+         * @return the match numbers in the lower half of each element, sorted by keyword index and then by position
+         */
+        private long[] sortByKeyword() {
+            for (int i = 0; i < count; i++) {
+                order[i] = ((long) keywords[i] << 32) | i;
+            }
+            Arrays.sort(order, 0, count);
+            return order;
+        }
+
+        private void clear() {
+            count = 0;
+            covered.clear();
+            accepted.clear();
         }
-        return false;
     }
 }
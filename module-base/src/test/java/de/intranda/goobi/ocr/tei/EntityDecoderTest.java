@@ -0,0 +1,30 @@
+package de.intranda.goobi.ocr.tei;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class EntityDecoderTest {
+
+    @Test
+    public void testToXml() {
+        assertEquals("jüdische Bevölkerung", EntityDecoder.toXml("j&uuml;dische Bev&ouml;lkerung"));
+        assertEquals("<p>a &lt;b&gt; &amp; c</p>", EntityDecoder.toXml("<p>a &lt;b&gt; &amp; c</p>"));
+        assertEquals("Tom &amp; Jerry &amp;foo; &amp;", EntityDecoder.toXml("Tom & Jerry &foo; &"));
+        assertEquals("\"A\" &lt; é", EntityDecoder.toXml("&quot;&#65;&quot; &#60; &#xe9;"));
+        assertEquals("&amp;#; &amp;#x; &amp;#-5;", EntityDecoder.toXml("&#; &#x; &#-5;"));
+    }
+
+    @Test
+    public void testDecodeHtml() {
+        assertEquals("Ä &amp; &lt;b&gt; & x", EntityDecoder.decodeHtml("&Auml; &amp; &lt;b&gt; & x"));
+        assertEquals("&unknown;", EntityDecoder.decodeHtml("&unknown;"));
+    }
+
+    @Test
+    public void testTextWithoutEntities() {
+        String text = "<p>no entities</p>";
+        assertSame(text, EntityDecoder.toXml(text));
+    }
+}
@@ -0,0 +1,93 @@
+package de.intranda.goobi.ocr.tei;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FragmentParserTest {
+
+    private StringWriter out;
+    private XMLStreamWriter writer;
+    private FragmentParser parser;
+
+    @Before
+    public void setUp() throws Exception {
+        out = new StringWriter();
+        writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+        writer.writeStartElement("body");
+        parser = new FragmentParser(writer);
+    }
+
+    @Test
+    public void testNamespaces() throws Exception {
+        assertSameAsJdom("<x:a xmlns:x=\"urn:x\" x:b=\"1\" c=\"2\"><x:c/>text</x:a><d xmlns=\"urn:d\"><e/><e>f</e></d>");
+    }
+
+    @Test
+    public void testNamespaceOfOuterElement() throws Exception {
+        assertSameAsJdom("<p xmlns:x=\"urn:x\"><x:ref x:target=\"a\">Ort</x:ref></p><p>ohne</p>");
+    }
+
+    @Test
+    public void testEntities() throws Exception {
+        assertSameAsJdom("K&#228;the &amp; &lt;Sohn&gt; &quot;x&quot; &#x2013; <hi rend=\"a &amp; &lt;b&gt; &quot;c&quot;\">y</hi>");
+    }
+
+    @Test
+    public void testMixedContent() throws Exception {
+        assertSameAsJdom("Text <b>fett <i>kursiv</i></b><!-- Kommentar --> mehr<?pi data?><lb/>ende\n  <p> </p>");
+    }
+
+    @Test
+    public void testEmptyFragment() throws Exception {
+        assertSameAsJdom("");
+    }
+
+    @Test
+    public void testMalformedFragments() throws Exception {
+        for (String fragment : new String[] { "<a>", "<a></b>", "a &nbsp; b", "<a b=\"1\" b=\"2\"/>", "<x:a/>" }) {
+            try {
+                parser.parse(fragment);
+                fail("Fragment " + fragment + " was accepted");
+            } catch (JDOMException e) {
+                // expected
+            }
+        }
+        // the parser can still be used afterwards, text before the error has been written already
+        parser.parse("<p>ok</p>");
+        writer.writeEndElement();
+        writer.flush();
+        assertTrue(out.toString(), out.toString().endsWith("<p>ok</p></body>"));
+    }
+
+    /**
+     * Parse the fragment with the parser and compare the written content with the content JDOM builds for it
+     */
+    private void assertSameAsJdom(String fragment) throws JDOMException, IOException, XMLStreamException {
+        parser.parse(fragment);
+        writer.writeEndElement();
+        writer.flush();
+
+        Element expected = new Element("body");
+        expected.addContent(new SAXBuilder().build(new StringReader("<div>" + fragment + "</div>")).getRootElement().removeContent());
+        Element written = new SAXBuilder().build(new StringReader(out.toString())).getRootElement();
+        XMLOutputter outputter = new XMLOutputter(Format.getRawFormat());
+        assertEquals(outputter.outputString(expected), outputter.outputString(written));
+    }
+}
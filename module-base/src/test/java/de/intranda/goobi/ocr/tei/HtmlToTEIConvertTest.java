@@ -0,0 +1,107 @@
+package de.intranda.goobi.ocr.tei;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.Namespace;
+import org.jdom2.filter.Filters;
+import org.jdom2.input.SAXBuilder;
+import org.junit.Test;
+
+import de.intranda.goobi.ocr.tei.HtmlToTEIConvert.ConverterMode;
+import de.intranda.goobi.ocr.tei.HtmlToTEIConvert.Engine;
+
+/**
+ * Compares the output of both conversion engines with the golden files in src/test/resources/golden, which were created with the original
+ * regular expression conversion. Intended differences to the original conversion are tested separately
+ */
+public class HtmlToTEIConvertTest {
+
+    private static final Path RESOURCES = Paths.get("src/test/resources");
+    private static final Path GOLDEN = RESOURCES.resolve("golden");
+    private static final Namespace GOOBI = Namespace.getNamespace("goobi", "http://meta.goobi.org/v1.5.1/");
+
+    @Test
+    public void testRegexEngineMatchesGoldenFiles() throws Exception {
+        assertGoldenFiles(Engine.regex);
+    }
+
+    @Test
+    public void testTokenEngineMatchesGoldenFiles() throws Exception {
+        assertGoldenFiles(Engine.token);
+    }
+
+    @Test
+    public void testReplaceNumberedFootnotes() {
+        Footnote footnote = new SimpleFootnote("(?<!<p>)(<a href=\"#_ftn\\d+\"\\s+name=\"_ftnref\\d+\">\\[(\\d+)\\]<\\/a>)",
+                "<p><a href=\"#_ftnref\\d+\"\\s+name=\"_ftn§\">\\[§\\]<\\/a>\\s*(.*?)<\\/p>(?=(\\s*<p><a href=\"#_ftnref\\d+)|\\s*$|\\s*<\\/div>)");
+        String text = "<p>Erstens<a href=\"#_ftn2\" name=\"_ftnref2\">[2]</a> und zweitens<a href=\"#_ftn1\" name=\"_ftnref1\">[1]</a>"
+                + " und<a href=\"#_ftn3\" name=\"_ftnref3\">[3]</a>.</p>"
+                + "<p><a href=\"#_ftnref1\" name=\"_ftn1\">[1]</a> Erste Anmerkung</p><p><a href=\"#_ftnref2\" name=\"_ftn2\">[2]</a> Zweite Anmerkung</p>";
+        String result = new HtmlToTEIConvert(ConverterMode.resource).replaceFootnotes(text, List.of(footnote));
+        assertEquals("<p>Erstens <note><p>Zweite Anmerkung</p></note>  und zweitens <note><p>Erste Anmerkung</p></note>  und .</p>", result);
+    }
+
+    @Test
+    public void testTimeoutFallsBackToTokenEngine() throws IOException {
+        String text = Files.readString(GOLDEN.resolve("constructs.html"), StandardCharsets.UTF_8);
+        HtmlToTEIConvert converter = new HtmlToTEIConvert(ConverterMode.annotation).setTimeout(Duration.ZERO);
+        assertEquals(new HtmlToTEIConvert(ConverterMode.annotation, Engine.token).convert(text), converter.convert(text));
+        assertEquals(1, converter.getFallbackCount());
+    }
+
+    @Test
+    public void testTitleSpanFootnotes() {
+        // the original conversion lost the text of the first note and replaced the reference text everywhere
+        String text = "<p>Ein Zeuge<span title=\"Name geändert\">*</span> und ein zweiter<span title=\"Gespräch von 1955\">*</span>.</p>";
+        for (Engine engine : Engine.values()) {
+            String result = new HtmlToTEIConvert(ConverterMode.resource, engine).convert(text);
+            assertEquals(engine.toString(), "<div xmlns=\"http://www.tei-c.org/ns/1.0\"><p>Ein Zeuge <note><p>Name geändert</p></note>  und ein zweiter"
+                    + " <note><p>Gespräch von 1955</p></note> .</p></div>", result);
+        }
+    }
+
+    private void assertGoldenFiles(Engine engine) throws IOException, JDOMException {
+        Map<String, String> texts = readTexts();
+        for (Map.Entry<String, String> text : texts.entrySet()) {
+            for (ConverterMode mode : ConverterMode.values()) {
+                String expected = Files.readString(GOLDEN.resolve(text.getKey() + "." + mode + ".xml"), StandardCharsets.UTF_8);
+                String result = new HtmlToTEIConvert(mode, engine).convert(text.getValue());
+                assertEquals(text.getKey() + " in mode " + mode, expected, result);
+            }
+        }
+    }
+
+    /**
+     * @return all transcriptions and translations of the sample processes and the html fixture, by golden file name
+     */
+    private Map<String, String> readTexts() throws IOException, JDOMException {
+        Map<String, String> texts = new LinkedHashMap<>();
+        for (String sample : List.of("sample_1", "sample_2", "sample_3", "sample_4")) {
+            Element root = new SAXBuilder().build(RESOURCES.resolve(sample).resolve("meta.xml").toFile()).getRootElement();
+            List<Element> metadata = new ArrayList<>();
+            for (Element md : root.getDescendants(Filters.element("metadata", GOOBI))) {
+                if (md.getAttributeValue("name", "").matches("(Transcription|Translation)_\\w+")) {
+                    metadata.add(md);
+                }
+            }
+            for (int i = 0; i < metadata.size(); i++) {
+                texts.put(sample + "_" + i + "_" + metadata.get(i).getAttributeValue("name"), metadata.get(i).getText());
+            }
+        }
+        texts.put("constructs", Files.readString(GOLDEN.resolve("constructs.html"), StandardCharsets.UTF_8));
+        return texts;
+    }
+}
@@ -0,0 +1,24 @@
+package de.intranda.goobi.ocr.tei;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class InlineMarkupRewriterTest {
+
+    private final InlineMarkupRewriter rewriter = new InlineMarkupRewriter().addRule("strong", "<strong>", "<hi rend=\"bold\">", "</hi>")
+            .addRule("em", "<em>", "<hi rend=\"italic\">", "</hi>");
+
+    @Test
+    public void testNesting() {
+        assertEquals("<hi rend=\"bold\">a <hi rend=\"bold\">b</hi> <hi rend=\"italic\">c</hi></hi>",
+                rewriter.rewrite("<strong>a <strong>b</strong> <em>c</em></strong>"));
+    }
+
+    @Test
+    public void testSelfClosingTags() {
+        // self-closing tags must not be paired with the end tag of the enclosing element
+        assertEquals("<hi rend=\"bold\">a <strong/> b</hi> <em />c<hi rend=\"italic\">d</hi>",
+                rewriter.rewrite("<strong>a <strong/> b</strong> <em />c<em>d</em>"));
+    }
+}
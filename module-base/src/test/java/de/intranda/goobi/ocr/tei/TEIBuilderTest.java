@@ -1,14 +1,21 @@
 package de.intranda.goobi.ocr.tei;
 
+import static org.junit.Assert.assertEquals;
+
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.time.Duration;
 import java.util.List;
 import java.util.stream.Collectors;
 
 import org.apache.commons.io.FileUtils;
 import org.jdom2.Document;
 import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.Format;
 import org.jdom2.output.XMLOutputter;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -31,6 +38,58 @@ public class TEIBuilderTest {
 		System.out.println(result);
 	}
 
+	@Test
+	public void testFormatTextFallback() {
+		String text = "<span title=\"<p>K&auml;the &amp; Sohn</p>\">Ort</span> und <span title=\"Zeile\n\">x</span><span title=\"Ende\">y</span>";
+		TEIBuilder builder = new TEIBuilder().setTimeout(Duration.ZERO);
+		assertEquals(new TEIBuilder().formatText(text), builder.formatText(text));
+		assertEquals(1, builder.getFallbackCount());
+	}
+
+	@Test
+	public void testFormatTextEscapesOnlyTitles() {
+		// text outside of the attributes is kept, even if it equals a title
+		String text = "<span title=\"<p>Ort</p>\">x</span><p>Ort</p>";
+		assertEquals("<span title=\"&lt;p&gt;Ort&lt;/p&gt;\">x</span><p>Ort</p>", new TEIBuilder().formatText(text));
+		assertEquals("<span title=\"&lt;p&gt;Ort&lt;/p&gt;\">x</span><p>Ort</p>", new TEIBuilder().setTimeout(Duration.ZERO).formatText(text));
+	}
+
+	@Test
+	public void testWritePrettyPrint() throws JDOMException, IOException {
+		TEIBuilder builder = new TEIBuilder().setLanguage("de").setPrettyPrint(true);
+		builder.addTextSegment("<p>K&auml;the  <hi>und</hi> Sohn</p>");
+		builder.addTextSegment("<p/>");
+		StringWriter out = new StringWriter();
+		builder.write(out);
+		assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<TEI>\n  <teiHeader/>\n  <text xml:lang=\"de\">\n    <body>\n"
+				+ "      <seg><p>Käthe  <hi>und</hi> Sohn</p></seg>\n      <seg><p/></seg>\n    </body>\n  </text>\n</TEI>\n", out.toString());
+	}
+
+	@Test
+	public void testWriteMatchesBuildSingleSegment() throws JDOMException, IOException {
+		TEIBuilder builder = new TEIBuilder().setLanguage("en");
+		builder.addTextSegment("<p>K&auml;the &amp; <hi rend=\"italic\">Sohn</hi> &lt;1938&gt;</p><!-- note --><p/>text");
+		assertWriteMatchesBuild(builder);
+	}
+
+	@Test
+	public void testWriteMatchesBuildSeveralSegments() throws JDOMException, IOException {
+		TEIBuilder builder = new TEIBuilder().setLanguage("de");
+		builder.addTextSegment("(Sie kam in <span title=\"<p>Ein Ort</p>\">Auschwitz</span> um");
+		builder.addTextSegment("<p xmlns:x=\"urn:x\"><x:ref x:target=\"a\">Ort</x:ref><?pi data?></p>");
+		builder.addTextSegment("");
+		builder.addTextSegment("<p>Zeile<lb/>Zeile &#246;</p>");
+		assertWriteMatchesBuild(builder);
+	}
+
+	private static void assertWriteMatchesBuild(TEIBuilder builder) throws JDOMException, IOException {
+		StringWriter out = new StringWriter();
+		builder.write(out);
+		Document written = new SAXBuilder().build(new StringReader(out.toString()));
+		XMLOutputter outputter = new XMLOutputter(Format.getRawFormat());
+		assertEquals(outputter.outputString(builder.build()), outputter.outputString(written));
+	}
+
 	@Test
 	@Ignore("This failing test was not executed before")
 	public void testReadMets() throws PreferencesException, ReadException, JDOMException, IOException {
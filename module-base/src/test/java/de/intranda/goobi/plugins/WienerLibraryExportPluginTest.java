@@ -3,7 +3,12 @@ package de.intranda.goobi.plugins;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.io.FileUtils;
@@ -19,10 +24,15 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
 
+import de.intranda.goobi.utils.GlossaryIndexFile;
+import de.intranda.goobi.utils.GlossarySnapshot;
+import de.intranda.goobi.utils.GlossarySnapshotCache;
+import de.intranda.goobi.utils.VocabularyEnricher;
 import de.sub.goobi.helper.exceptions.DAOException;
 import de.sub.goobi.helper.exceptions.ExportFileException;
 import de.sub.goobi.helper.exceptions.SwapException;
 import de.sub.goobi.helper.exceptions.UghHelperException;
+import ugh.dl.Metadata;
 import ugh.dl.Prefs;
 import ugh.exceptions.DocStructHasNoTypeException;
 import ugh.exceptions.MetadataTypeNotAllowedException;
@@ -40,13 +50,15 @@ public class WienerLibraryExportPluginTest {
     File rulesetFile = new File("src/test/resources/ruleset.xml");
     File exportFolder = new File("src/test/resources/output");
     Process process;
+    Prefs prefs;
     WienerLibraryExportPlugin plugin;
 
     @Before
     public void setUp() throws Exception {
                 
+        FileUtils.forceMkdir(exportFolder);
         FileUtils.cleanDirectory(exportFolder);
-        Prefs prefs = new Prefs();
+        prefs = new Prefs();
         prefs.loadPrefs(rulesetFile.getAbsolutePath());
         
         Project project = Mockito.spy(new Project());
@@ -80,8 +92,83 @@ public class WienerLibraryExportPluginTest {
     public void testStartExport() throws DocStructHasNoTypeException, PreferencesException, WriteException, MetadataTypeNotAllowedException, ReadException, TypeNotAllowedForParentException, IOException, InterruptedException, ExportFileException, UghHelperException, SwapException, DAOException {
         Assert.assertTrue(plugin.startExport(process));
     }
-    
 
+    @Test
+    public void testParallelEnrichment() throws Exception {
+        plugin.setEnricher(loadEnricher(new VocabularyEnricher(), "Parallel Glossary"));
+
+        List<Metadata> serial = createEnglishMetadata(20);
+        plugin.setEnrichmentThreads(1);
+        plugin.enrichMetadata(serial);
+        List<Metadata> parallel = createEnglishMetadata(20);
+        plugin.setEnrichmentThreads(4);
+        plugin.enrichMetadata(parallel);
+
+        Assert.assertEquals("Von <span>Bentschen<note><term>Bentschen</term>Der Ort</note></span> nach "
+                + "<span>Neu-Bentschen<note><term>Neu-Bentschen</term>Der Ortsteil</note></span> 0", serial.get(0).getValue());
+        for (int i = 0; i < serial.size(); i++) {
+            Assert.assertEquals(serial.get(i).getValue(), parallel.get(i).getValue());
+        }
+    }
+
+    @Test
+    public void testFailedParallelEnrichmentIsRepeated() throws Exception {
+        plugin.setEnricher(loadEnricher(new VocabularyEnricher(), "Serial Glossary"));
+        List<Metadata> serial = createEnglishMetadata(5);
+        plugin.enrichMetadata(serial);
+
+        // the enrichment only works on the export thread
+        Thread exportThread = Thread.currentThread();
+        plugin.setEnricher(loadEnricher(new VocabularyEnricher() {
+            @Override
+            public String enrich(String text) {
+                if (Thread.currentThread() != exportThread) {
+                    throw new IllegalStateException("enrichment failed");
+                }
+                return super.enrich(text);
+            }
+        }, "Failing Glossary"));
+        List<Metadata> parallel = createEnglishMetadata(5);
+        plugin.setEnrichmentThreads(4);
+        plugin.enrichMetadata(parallel);
+
+        for (int i = 0; i < serial.size(); i++) {
+            Assert.assertEquals(serial.get(i).getValue(), parallel.get(i).getValue());
+        }
+    }
+
+    @Test
+    public void testTeiRegexTimeout() throws Exception {
+        // the title attribute search backtracks quadratically over the unterminated attributes
+        String text = "<p>" + "title=\"x ".repeat(50000) + "</p>";
+        plugin.setTeiRegexTimeout(Duration.ofMillis(50));
+        Path file = folder.getRoot().toPath().resolve("sample_tei_en.xml");
+
+        Assert.assertEquals(1, plugin.writeTEIFile(file, List.of("<p>Vorher</p>", text), "en"));
+        Assert.assertTrue(Files.readString(file).contains("<seg><p>Vorher</p></seg>"));
+    }
+
+    private VocabularyEnricher loadEnricher(VocabularyEnricher enricher, String vocabularyName) throws IOException {
+        GlossarySnapshot snapshot = new GlossarySnapshot(vocabularyName, 1, 2, List.of("Neu-Bentschen", "Bentschen"),
+                List.of("<note><term>Neu-Bentschen</term>Der Ortsteil</note>", "<note><term>Bentschen</term>Der Ort</note>"));
+        Path indexFile = folder.getRoot().toPath().resolve(vocabularyName + ".idx");
+        GlossaryIndexFile.write(snapshot, indexFile);
+        GlossarySnapshotCache.getInstance().invalidate(vocabularyName);
+        enricher.setIndexFile(indexFile);
+        enricher.setOffline(true);
+        enricher.load(vocabularyName);
+        return enricher;
+    }
+
+    private List<Metadata> createEnglishMetadata(int count) throws MetadataTypeNotAllowedException {
+        List<Metadata> metadata = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Metadata md = new Metadata(prefs.getMetadataTypeByName(i % 2 == 0 ? "Transcription_en" : "Translation_en"));
+            md.setValue("Von Bentschen nach Neu-Bentschen " + i);
+            metadata.add(md);
+        }
+        return metadata;
+    }
 
 public static void set(Map<String, String> newenv) throws Exception {
     Class[] classes = Collections.class.getDeclaredClasses();
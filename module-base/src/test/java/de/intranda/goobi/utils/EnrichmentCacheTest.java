@@ -0,0 +1,178 @@
+package de.intranda.goobi.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EnrichmentCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger enrichments = new AtomicInteger();
+    private final UnaryOperator<String> enrichment = text -> {
+        enrichments.incrementAndGet();
+        return "<span>" + text + "</span>";
+    };
+
+    @Test
+    public void testHits() {
+        EnrichmentCache cache = new EnrichmentCache(null);
+        cache.setMaxMemoryCharacters(1000);
+
+        assertEquals("<span>text</span>", cache.get("1", "text", enrichment));
+        assertEquals("<span>text</span>", cache.get("1", "text", enrichment));
+        assertEquals(1, enrichments.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // another glossary version may enrich the text differently
+        cache.get("2", "text", enrichment);
+        assertEquals(2, enrichments.get());
+    }
+
+    @Test
+    public void testMemoryIsOptIn() {
+        EnrichmentCache cache = new EnrichmentCache(null);
+        assertFalse(cache.isEnabled());
+        cache.get("1", "text", enrichment);
+        cache.get("1", "text", enrichment);
+        assertEquals(2, enrichments.get());
+
+        cache.setMaxMemoryCharacters(1000);
+        assertTrue(cache.isEnabled());
+        cache.get("1", "text", enrichment);
+        cache.get("1", "text", enrichment);
+        assertEquals(3, enrichments.get());
+
+        // disabling the memory level releases the texts
+        cache.setMaxMemoryCharacters(0);
+        cache.get("1", "text", enrichment);
+        assertEquals(4, enrichments.get());
+    }
+
+    @Test
+    public void testMemoryLimit() {
+        EnrichmentCache cache = new EnrichmentCache(null);
+        // room for two enriched texts of 17 characters
+        cache.setMaxMemoryCharacters(40);
+        cache.get("1", "aaaa", enrichment);
+        cache.get("1", "bbbb", enrichment);
+        // the least recently used text is evicted, which is bbbb after aaaa was read again
+        cache.get("1", "aaaa", enrichment);
+        cache.get("1", "cccc", enrichment);
+        assertEquals(3, enrichments.get());
+
+        cache.get("1", "aaaa", enrichment);
+        cache.get("1", "cccc", enrichment);
+        assertEquals(3, enrichments.get());
+        cache.get("1", "bbbb", enrichment);
+        assertEquals(4, enrichments.get());
+    }
+
+    @Test
+    public void testPersistence() {
+        Path directory = folder.getRoot().toPath().resolve("cache");
+        new EnrichmentCache(directory).get("1", "text", enrichment);
+
+        EnrichmentCache cache = new EnrichmentCache(directory);
+        assertEquals("<span>text</span>", cache.get("1", "text", enrichment));
+        assertEquals(1, enrichments.get());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        Path directory = folder.getRoot().toPath().resolve("cache");
+        EnrichmentCache cache = new EnrichmentCache(directory);
+        cache.setMaxEntries(10);
+        // the folder is checked on the first write and then after every EVICTION_INTERVAL writes
+        for (int i = 0; i < EnrichmentCache.EVICTION_INTERVAL; i++) {
+            cache.get("1", "text " + i, enrichment);
+        }
+        List<Path> files = listFiles(directory);
+        assertEquals(EnrichmentCache.EVICTION_INTERVAL, files.size());
+        for (Path file : files) {
+            boolean recentlyUsed = Files.readString(file).equals("<span>text 0</span>");
+            Files.setLastModifiedTime(file, FileTime.from(recentlyUsed ? Instant.now() : Instant.now().minusSeconds(3600)));
+        }
+
+        cache.get("1", "text " + EnrichmentCache.EVICTION_INTERVAL, enrichment);
+        files = listFiles(directory);
+        assertEquals(9, files.size());
+        List<String> remaining = files.stream().map(EnrichmentCacheTest::read).collect(Collectors.toList());
+        assertTrue(remaining.contains("<span>text 0</span>"));
+        assertTrue(remaining.contains("<span>text " + EnrichmentCache.EVICTION_INTERVAL + "</span>"));
+    }
+
+    @Test
+    public void testEvictionIgnoresTempFiles() throws IOException {
+        Path directory = folder.getRoot().toPath().resolve("cache");
+        EnrichmentCache cache = new EnrichmentCache(directory);
+        cache.setMaxEntries(10);
+        cache.get("1", "text 0", enrichment);
+        // an entry another thread is still writing, it must neither be counted nor deleted
+        Path tempFile = listFiles(directory).get(0).resolveSibling("entry123.tmp");
+        Files.writeString(tempFile, "<span>te");
+        Files.setLastModifiedTime(tempFile, FileTime.from(Instant.now().minusSeconds(3600)));
+
+        for (int i = 1; i <= EnrichmentCache.EVICTION_INTERVAL; i++) {
+            cache.get("1", "text " + i, enrichment);
+        }
+        assertTrue(Files.exists(tempFile));
+        assertEquals(10, listFiles(directory).size());
+    }
+
+    @Test
+    public void testCorruptFile() throws IOException {
+        Path directory = folder.getRoot().toPath().resolve("cache");
+        new EnrichmentCache(directory).get("1", "text", enrichment);
+        Path file = listFiles(directory).get(0);
+        // not valid UTF-8
+        Files.write(file, new byte[] { (byte) 0xC3, (byte) 0x28, (byte) 0xFF });
+
+        assertEquals("<span>text</span>", new EnrichmentCache(directory).get("1", "text", enrichment));
+        assertEquals(2, enrichments.get());
+        assertEquals("<span>text</span>", Files.readString(file));
+    }
+
+    @Test
+    public void testUnwritableFolder() throws IOException {
+        // a file where the cache folder should be
+        Path directory = folder.newFile("cache").toPath();
+        EnrichmentCache cache = new EnrichmentCache(directory);
+
+        assertEquals("<span>text</span>", cache.get("1", "text", enrichment));
+        assertEquals("<span>text</span>", cache.get("1", "text", enrichment));
+        assertEquals(2, enrichments.get());
+    }
+
+    private static List<Path> listFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+    }
+
+    private static String read(Path file) {
+        try {
+            return Files.readString(file);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
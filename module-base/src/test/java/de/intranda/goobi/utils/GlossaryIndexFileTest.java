@@ -0,0 +1,80 @@
+package de.intranda.goobi.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GlossaryIndexFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private GlossarySnapshot snapshot;
+    private Path indexFile;
+
+    @Before
+    public void setUp() throws IOException {
+        snapshot = new GlossarySnapshot("Glossary", 42, 4, List.of("Neu-Bentschen", "Bentschen", "Łódź", "Posen"),
+                Arrays.asList("<note><term>Neu-Bentschen</term>Der Ortsteil</note>", "<note><term>Bentschen</term>Der Ort &amp; mehr</note>",
+                        "<note><term>Łódź</term>Die Stadt</note>", null));
+        indexFile = folder.getRoot().toPath().resolve("glossary.idx");
+        GlossaryIndexFile.write(snapshot, indexFile);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        GlossarySnapshot read = GlossaryIndexFile.read(indexFile);
+
+        assertEquals(snapshot.getVocabularyName(), read.getVocabularyName());
+        assertEquals(snapshot.getVocabularyId(), read.getVocabularyId());
+        assertEquals(snapshot.getRecordCount(), read.getRecordCount());
+        assertEquals(snapshot.getVersion(), read.getVersion());
+        assertEquals(snapshot.getKeywords(), new ArrayList<>(read.getKeywords()));
+        assertEquals(snapshot.getNotes(), new ArrayList<>(read.getNotes()));
+        assertNull(read.getNote(3));
+
+        String text = "Von Neu-Bentschen nach bentschen, dann Łódź und Posen.";
+        assertEquals(KeywordMatcherTest.findAll(snapshot.getKeywordMatcher(), text), KeywordMatcherTest.findAll(read.getKeywordMatcher(), text));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedFile() throws IOException {
+        long size = Files.size(indexFile);
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 10);
+        }
+        GlossaryIndexFile.read(indexFile);
+    }
+
+    @Test(expected = IOException.class)
+    public void testWrongMagic() throws IOException {
+        overwriteInt(0, 0x12345678);
+        GlossaryIndexFile.read(indexFile);
+    }
+
+    @Test(expected = IOException.class)
+    public void testWrongFormatVersion() throws IOException {
+        overwriteInt(4, 99);
+        GlossaryIndexFile.read(indexFile);
+    }
+
+    private void overwriteInt(long position, int value) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, value), position);
+        }
+    }
+}
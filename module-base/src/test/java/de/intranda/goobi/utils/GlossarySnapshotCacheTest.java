@@ -0,0 +1,52 @@
+package de.intranda.goobi.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class GlossarySnapshotCacheTest {
+
+    private static final String NAME = "Cache Test Glossary";
+    private static final Duration LONG = Duration.ofHours(1);
+
+    private final AtomicInteger loads = new AtomicInteger();
+    private final AtomicInteger probes = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        GlossarySnapshotCache.getInstance().invalidate(NAME);
+    }
+
+    @Test
+    public void testSettingsApplyToEachAccess() {
+        get(LONG, LONG);
+        assertEquals(1, loads.get());
+
+        // an export with a short time to live reloads the snapshot, without changing the time to live of the others
+        get(Duration.ZERO, LONG);
+        assertEquals(2, loads.get());
+        get(LONG, LONG);
+        assertEquals(2, loads.get());
+        assertEquals(0, probes.get());
+
+        // an export with a short probe interval checks the vocabulary for changes
+        get(LONG, Duration.ZERO);
+        assertEquals(2, loads.get());
+        assertEquals(1, probes.get());
+    }
+
+    private GlossarySnapshot get(Duration timeToLive, Duration probeInterval) {
+        return GlossarySnapshotCache.getInstance().get(NAME, timeToLive, probeInterval, name -> {
+            loads.incrementAndGet();
+            return new GlossarySnapshot(name, 1, 1, List.of("Bentschen"), List.of("<note><term>Bentschen</term>Der Ort</note>"));
+        }, snapshot -> {
+            probes.incrementAndGet();
+            return snapshot.getRecordCount();
+        });
+    }
+}
@@ -0,0 +1,139 @@
+package de.intranda.goobi.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IncrementalExportTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path source;
+    private Path exportFolder;
+    /** copies the images without their modification time, like the plugin does */
+    private ParallelFileCopy copy;
+
+    @Before
+    public void setUp() throws IOException {
+        source = folder.newFolder("images").toPath();
+        exportFolder = folder.newFolder("export").toPath();
+        for (int i = 1; i <= 3; i++) {
+            Files.writeString(source.resolve(i + ".tif"), "image " + i);
+            Files.setLastModifiedTime(source.resolve(i + ".tif"), FileTime.from(Instant.now().minusSeconds(3600)));
+        }
+        copy = new ParallelFileCopy(2, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Test
+    public void testUnchangedFilesAreSkipped() throws IOException, InterruptedException {
+        assertEquals(3, export("1.tif", "2.tif", "3.tif"));
+        // the copies do not have the modification time of their source
+        assertFalse(Files.getLastModifiedTime(source.resolve("1.tif")).equals(Files.getLastModifiedTime(exportFolder.resolve("process_tif/1.tif"))));
+
+        assertEquals(0, export("1.tif", "2.tif", "3.tif"));
+        assertEquals("image 1", Files.readString(exportFolder.resolve("process_tif/1.tif")));
+        ExportManifest.Entry entry = ExportManifest.read(exportFolder.resolve(".process.manifest")).get("process_tif/1.tif");
+        assertEquals(Files.getLastModifiedTime(source.resolve("1.tif")).toMillis(), entry.getSourceModified());
+        assertEquals(-1, ExportManifest.read(exportFolder.resolve(".process.manifest")).get("process_tei/process_tei_de.xml").getSourceSize());
+    }
+
+    @Test
+    public void testLinkedFilesAreSkipped() throws IOException, InterruptedException {
+        copy.setLinkMode(ParallelFileCopy.LinkMode.LINK);
+        assertEquals(3, export("1.tif", "2.tif", "3.tif"));
+        assertEquals(0, export("1.tif", "2.tif", "3.tif"));
+
+        // a changed source is exported again, even with the same size
+        Files.writeString(source.resolve("2.tif"), "image 0");
+        assertEquals(1, export("1.tif", "2.tif", "3.tif"));
+    }
+
+    @Test
+    public void testManifestWithoutSources() throws IOException, InterruptedException {
+        export("1.tif", "2.tif", "3.tif");
+        Path manifest = exportFolder.resolve(".process.manifest");
+        Files.writeString(manifest, "# export manifest 1\n" + ExportManifest.describe(exportFolder.resolve("process_tif/1.tif")).getHash()
+                + "\t7\t" + Files.getLastModifiedTime(exportFolder.resolve("process_tif/1.tif")).toMillis() + "\tprocess_tif/1.tif\n");
+        assertEquals(1, ExportManifest.read(manifest).size());
+
+        // the files of the old manifest have no source, so they are exported again once
+        assertEquals(3, export("1.tif", "2.tif", "3.tif"));
+        assertEquals(0, export("1.tif", "2.tif", "3.tif"));
+    }
+
+    @Test
+    public void testExportChangedFiles() throws IOException, InterruptedException {
+        assertEquals(3, export("1.tif", "2.tif", "3.tif"));
+        FileTime teiModified = Files.getLastModifiedTime(exportFolder.resolve("process_tei/process_tei_de.xml"));
+
+        Files.writeString(source.resolve("2.tif"), "changed image");
+        Files.setLastModifiedTime(source.resolve("2.tif"), FileTime.from(Instant.now().plusSeconds(60)));
+        assertEquals(1, export("1.tif", "2.tif"));
+
+        assertEquals("changed image", Files.readString(exportFolder.resolve("process_tif/2.tif")));
+        assertFalse(Files.exists(exportFolder.resolve("process_tif/3.tif")));
+        // the TEI file has the same content, so it is not replaced
+        assertEquals(teiModified, Files.getLastModifiedTime(exportFolder.resolve("process_tei/process_tei_de.xml")));
+        assertEquals(Set.of("process_tif/1.tif", "process_tif/2.tif", "process_tei/process_tei_de.xml"),
+                ExportManifest.read(exportFolder.resolve(".process.manifest")).getPaths());
+    }
+
+    @Test
+    public void testChangedExportIsRepaired() throws IOException, InterruptedException {
+        export("1.tif", "2.tif", "3.tif");
+        Files.delete(exportFolder.resolve("process_tif/1.tif"));
+
+        assertEquals(1, export("1.tif", "2.tif", "3.tif"));
+        assertTrue(Files.exists(exportFolder.resolve("process_tif/1.tif")));
+    }
+
+    @Test
+    public void testFoldersWhichAreNotExportedAreKept() throws IOException, InterruptedException {
+        export("1.tif", "2.tif", "3.tif");
+        // export without images
+        assertEquals(0, export());
+
+        assertTrue(Files.exists(exportFolder.resolve("process_tif/3.tif")));
+        assertEquals(4, ExportManifest.read(exportFolder.resolve(".process.manifest")).size());
+    }
+
+    /**
+     * Stage and publish an export like the plugin does
+     *
+     * @return the number of copied images
+     */
+    private int export(String... images) throws IOException, InterruptedException {
+        Path stagingFolder = folder.newFolder().toPath();
+        IncrementalExport export = new IncrementalExport(exportFolder, stagingFolder, "process");
+        Path imageFolder = stagingFolder.resolve("process_tif");
+        if (images.length > 0) {
+            Files.createDirectories(imageFolder);
+        }
+        for (String image : images) {
+            Path target = imageFolder.resolve(image);
+            if (!export.isUnchanged(source.resolve(image), target)) {
+                copy.add(source.resolve(image), target);
+            }
+        }
+        int copied = copy.size();
+        copy.copy();
+        Path teiFolder = Files.createDirectories(stagingFolder.resolve("process_tei"));
+        Files.writeString(teiFolder.resolve("process_tei_de.xml"), "<TEI></TEI>");
+        export.publish();
+        return copied;
+    }
+}
@@ -0,0 +1,51 @@
+package de.intranda.goobi.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KeywordMatcherTest {
+
+    @Test
+    public void testFindAll() {
+        KeywordMatcher matcher = new KeywordMatcher(List.of("Neu-Bentschen", "Bentschen", "Posen"));
+        List<List<Integer>> matches = findAll(matcher, "Von neu-bentschen nach AltBentschen, dann BENTSCHEN und Posen.");
+
+        // ordered by end position, longest first
+        Assert.assertEquals(List.of(List.of(0, 4, 17), List.of(1, 8, 17), List.of(1, 42, 51), List.of(2, 56, 61)), matches);
+    }
+
+    @Test
+    public void testWordBoundaries() {
+        KeywordMatcher matcher = new KeywordMatcher(List.of("Bentschen"));
+        Assert.assertTrue(findAll(matcher, "Bentschener Straße").isEmpty());
+        Assert.assertTrue(findAll(matcher, "Übentschen").isEmpty());
+        Assert.assertTrue(findAll(matcher, "Bentschenß").isEmpty());
+        Assert.assertEquals(2, findAll(matcher, "Bentschen1 (Bentschen)").size());
+    }
+
+    @Test
+    public void testNonAsciiCase() {
+        // like Pattern.CASE_INSENSITIVE only US-ASCII letters are compared case insensitive
+        KeywordMatcher matcher = new KeywordMatcher(List.of("Ämter"));
+        Assert.assertEquals(1, findAll(matcher, "Die ÄMTER").size());
+        Assert.assertTrue(findAll(matcher, "Die ämter").isEmpty());
+    }
+
+    @Test
+    public void testEmptyKeywords() {
+        KeywordMatcher matcher = new KeywordMatcher(List.of("", "a"));
+        Assert.assertEquals(List.of(List.of(1, 0, 1)), findAll(matcher, "a b"));
+    }
+
+    /**
+     * Collect the matches as lists of keyword index, start and end
+     */
+    static List<List<Integer>> findAll(KeywordMatcher matcher, String text) {
+        List<List<Integer>> matches = new ArrayList<>();
+        matcher.findAll(text, (keywordIndex, start, end) -> matches.add(List.of(keywordIndex, start, end)));
+        return matches;
+    }
+}
@@ -0,0 +1,73 @@
+package de.intranda.goobi.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.Namespace;
+import org.jdom2.input.SAXBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MetsFileGroupInjectorTest {
+
+    private static final Namespace METS = Namespace.getNamespace("mets", MetsFileGroupInjector.METS_NAMESPACE);
+    private static final Namespace XLINK = Namespace.getNamespace("xlink", MetsFileGroupInjector.XLINK_NAMESPACE);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAddFileGroup() throws IOException, JDOMException {
+        Path source = Paths.get("src/test/resources/sample_1/meta.xml");
+        Path target = folder.getRoot().toPath().resolve("meta.xml");
+        new MetsFileGroupInjector("TEI", "text/xml", List.of("file:///tei/sample_de.xml", "file:///tei/sample_en.xml")).inject(source, target);
+
+        Document original = new SAXBuilder().build(source.toFile());
+        Document copy = new SAXBuilder().build(target.toFile());
+        Element originalFileSec = original.getRootElement().getChild("fileSec", METS);
+        Element fileSec = copy.getRootElement().getChild("fileSec", METS);
+        assertEquals(originalFileSec.getChildren().size() + 1, fileSec.getChildren().size());
+
+        Element fileGroup = fileSec.getChildren().get(fileSec.getChildren().size() - 1);
+        assertEquals("fileGrp", fileGroup.getName());
+        assertEquals("TEI", fileGroup.getAttributeValue("USE"));
+        List<Element> files = fileGroup.getChildren("file", METS);
+        assertEquals(2, files.size());
+        assertEquals("FILE_0001_TEI", files.get(1).getAttributeValue("ID"));
+        assertEquals("text/xml", files.get(1).getAttributeValue("MIMETYPE"));
+        Element location = files.get(1).getChild("FLocat", METS);
+        assertEquals("file:///tei/sample_en.xml", location.getAttributeValue("href", XLINK));
+        assertEquals("URL", location.getAttributeValue("LOCTYPE"));
+
+        // everything else is copied unchanged
+        fileSec.removeContent(fileGroup);
+        assertEquals(new SAXBuilder().build(source.toFile()).getRootElement().getChildren().size(), copy.getRootElement().getChildren().size());
+    }
+
+    @Test
+    public void testAddFileSection() throws IOException, JDOMException {
+        Path source = folder.newFile("mets.xml").toPath();
+        Files.writeString(source, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<m:mets xmlns:m=\"http://www.loc.gov/METS/\"><m:structMap TYPE=\"LOGICAL\" LABEL=\"Zeugenaussage über &amp;\"/></m:mets>",
+                StandardCharsets.UTF_8);
+        Path target = folder.getRoot().toPath().resolve("export.xml");
+        new MetsFileGroupInjector("TEI", "text/xml", List.of("file:///tei/sample_de.xml")).inject(source, target);
+
+        Element root = new SAXBuilder().build(target.toFile()).getRootElement();
+        assertEquals("Zeugenaussage über &", root.getChild("structMap", METS).getAttributeValue("LABEL"));
+        Element fileSec = root.getChild("fileSec", METS);
+        assertNotNull(fileSec);
+        Element location = fileSec.getChild("fileGrp", METS).getChild("file", METS).getChild("FLocat", METS);
+        assertEquals("file:///tei/sample_de.xml", location.getAttributeValue("href", XLINK));
+    }
+}
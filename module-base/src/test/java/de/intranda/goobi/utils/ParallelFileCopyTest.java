@@ -0,0 +1,95 @@
+package de.intranda.goobi.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.intranda.goobi.utils.ParallelFileCopy.LinkMode;
+
+public class ParallelFileCopyTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCopy() throws IOException, InterruptedException {
+        Path source = folder.newFolder("source").toPath();
+        Path target = folder.newFolder("target").toPath();
+        ParallelFileCopy copy = new ParallelFileCopy(4, StandardCopyOption.REPLACE_EXISTING);
+        for (int i = 0; i < 20; i++) {
+            Path file = Files.writeString(source.resolve(i + ".txt"), "file " + i);
+            copy.add(file, target.resolve(i + ".txt"));
+        }
+        // the last source of a target is copied
+        copy.add(source.resolve("7.txt"), target.resolve("3.txt"));
+        assertEquals(20, copy.size());
+        copy.copy();
+
+        assertEquals(0, copy.size());
+        assertEquals("file 19", Files.readString(target.resolve("19.txt")));
+        assertEquals("file 7", Files.readString(target.resolve("3.txt")));
+    }
+
+    @Test
+    public void testEmptyBatch() throws IOException, InterruptedException {
+        // e.g. an incremental export in which all files are unchanged
+        ParallelFileCopy copy = new ParallelFileCopy(4);
+        copy.copy();
+        assertEquals(0, copy.size());
+    }
+
+    @Test
+    public void testLink() throws IOException, InterruptedException {
+        Path source = Files.writeString(folder.newFile("source.txt").toPath(), "source");
+        Path target = Files.writeString(folder.newFile("target.txt").toPath(), "target");
+        new ParallelFileCopy(1, StandardCopyOption.REPLACE_EXISTING).setLinkMode(LinkMode.LINK).add(source, target).copy();
+
+        assertEquals("source", Files.readString(target));
+        assertTrue(Files.isSameFile(source, target));
+    }
+
+    @Test
+    public void testLinkFailureOfOneFile() throws IOException, InterruptedException {
+        Path source = folder.newFolder("source").toPath();
+        Path target = folder.newFolder("target").toPath();
+        // folders cannot be linked, they are copied instead
+        Path subfolder = Files.createDirectory(source.resolve("folder"));
+        Path file = Files.writeString(source.resolve("file.txt"), "file");
+        new ParallelFileCopy(1).setLinkMode(LinkMode.LINK).add(subfolder, target.resolve("folder")).add(file, target.resolve("file.txt")).copy();
+
+        assertTrue(Files.isDirectory(target.resolve("folder")));
+        // the failure of the folder does not disable links for the following files
+        assertTrue(Files.isSameFile(file, target.resolve("file.txt")));
+    }
+
+    @Test
+    public void testFailureDeletesCopies() throws IOException, InterruptedException {
+        Path source = folder.newFolder("source").toPath();
+        Path target = folder.newFolder("target").toPath();
+        ParallelFileCopy copy = new ParallelFileCopy(4);
+        for (int i = 0; i < 20; i++) {
+            Path file = Files.writeString(source.resolve(i + ".txt"), "file " + i);
+            copy.add(file, target.resolve(i + ".txt"));
+        }
+        copy.add(source.resolve("missing.txt"), target.resolve("missing.txt"));
+        try {
+            copy.copy();
+            fail("missing source file was copied");
+        } catch (IOException e) {
+            try (Stream<Path> files = Files.list(target)) {
+                assertFalse(files.findAny().isPresent());
+            }
+        }
+    }
+}
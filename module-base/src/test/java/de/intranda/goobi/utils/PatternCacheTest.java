@@ -0,0 +1,33 @@
+package de.intranda.goobi.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class PatternCacheTest {
+
+    @Test
+    public void testGetCompilesOnce() {
+        PatternCache cache = new PatternCache(10);
+        Pattern pattern = cache.get("<h1.*?>(.*?)</h1>");
+        assertSame(pattern, cache.get("<h1.*?>(.*?)</h1>"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsDropped() {
+        PatternCache cache = new PatternCache(2);
+        Pattern a = cache.get("a");
+        Pattern b = cache.get("b");
+        cache.get("a");
+        cache.get("c");
+        assertEquals(2, cache.size());
+        assertSame(a, cache.get("a"));
+        assertNotSame(b, cache.get("b"));
+    }
+}
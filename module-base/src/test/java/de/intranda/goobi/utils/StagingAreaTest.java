@@ -0,0 +1,77 @@
+package de.intranda.goobi.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StagingAreaTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCreateAndRelease() throws IOException {
+        StagingArea stagingArea = new StagingArea(folder.getRoot().toPath().resolve(".staging"), 0);
+        Path staged = stagingArea.create("process");
+        assertTrue(staged.getFileName().toString().startsWith("process__"));
+        Files.createDirectories(staged.resolve("process_tif"));
+        Files.writeString(staged.resolve("process_tif").resolve("00000001.tif"), "image");
+
+        stagingArea.release(staged);
+        assertFalse(Files.exists(staged));
+    }
+
+    @Test
+    public void testSweep() throws IOException {
+        StagingArea stagingArea = new StagingArea(folder.getRoot().toPath(), 0);
+        Path orphan = folder.newFolder("process__1").toPath();
+        Files.writeString(orphan.resolve("process.xml"), "mets");
+        // left behind by an export whose lock was released when it crashed
+        Path unlocked = folder.newFolder("process__2").toPath();
+        Files.writeString(unlocked.resolve(".lock"), "1234@host");
+        Path other = folder.newFolder("other").toPath();
+        Path similar = folder.newFolder("other__x").toPath();
+        Path used = stagingArea.create("process");
+
+        assertEquals(0, stagingArea.sweep(FileTime.from(Instant.now().minusSeconds(3600))));
+        assertEquals(2, stagingArea.sweep(FileTime.from(Instant.now().plusSeconds(3600))));
+        assertFalse(Files.exists(orphan));
+        assertFalse(Files.exists(unlocked));
+        assertTrue(Files.exists(other));
+        assertTrue(Files.exists(similar));
+        assertTrue(Files.exists(used));
+
+        // a released folder is not locked anymore
+        stagingArea.release(used);
+        assertFalse(Files.exists(used));
+    }
+
+    @Test
+    public void testLockFile() throws IOException {
+        StagingArea stagingArea = new StagingArea(folder.getRoot().toPath(), 0);
+        Path staged = stagingArea.create("process");
+        assertTrue(staged.getFileName().toString().matches("process__\\d+"));
+        assertEquals(ManagementFactory.getRuntimeMXBean().getName(), Files.readString(staged.resolve(".lock")));
+        stagingArea.release(staged);
+    }
+
+    @Test(expected = IOException.class)
+    public void testQuota() throws IOException {
+        StagingArea stagingArea = new StagingArea(folder.getRoot().toPath(), 10);
+        Path staged = stagingArea.create("process");
+        Files.writeString(staged.resolve("process.xml"), "more than ten bytes");
+        assertEquals(19, stagingArea.getSize());
+        stagingArea.create("process");
+    }
+}
@@ -0,0 +1,28 @@
+package de.intranda.goobi.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class TimeLimitedCharSequenceTest {
+
+    @Test
+    public void testMatchWithinTimeLimit() {
+        Matcher matcher = Pattern.compile("<h1.*?>(.*?)</h1>")
+                .matcher(TimeLimitedCharSequence.withTimeout("<h1 class=\"x\">Titel</h1>", Duration.ofMinutes(1)));
+        assertTrue(matcher.find());
+        assertEquals("Titel", matcher.group(1));
+    }
+
+    @Test(expected = RegexTimeoutException.class)
+    public void testCatastrophicBacktrackingIsAborted() {
+        Pattern.compile("(.*a){10}b")
+                .matcher(TimeLimitedCharSequence.withTimeout("a".repeat(300), Duration.ofMillis(100)))
+                .find();
+    }
+}
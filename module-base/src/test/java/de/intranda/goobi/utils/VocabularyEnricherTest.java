@@ -13,6 +13,7 @@ import io.goobi.workflow.api.vocabulary.VocabularyAPI;
 import io.goobi.workflow.api.vocabulary.VocabularyAPIManager;
 import io.goobi.workflow.api.vocabulary.VocabularyRecordAPI;
 import io.goobi.workflow.api.vocabulary.VocabularySchemaAPI;
+import io.goobi.workflow.api.vocabulary.hateoas.PageInformation;
 import io.goobi.workflow.api.vocabulary.hateoas.VocabularyRecordPageResult;
 import io.goobi.workflow.api.vocabulary.helper.ExtendedVocabulary;
 import io.goobi.workflow.api.vocabulary.helper.ExtendedVocabularyRecord;
@@ -61,9 +62,16 @@ public class VocabularyEnricherTest {
 
     private long idCounter;
     private VocabularySchema vocabularySchema;
+    private ExtendedVocabularyRecord bentschen;
+    private ExtendedVocabularyRecord altBentschen;
+    private ExtendedVocabularyRecord neuBentschen;
+    /** the pages returned by the vocabulary server */
+    private List<VocabularyRecordPageResult> pages;
+    private int requestedPage;
 
     @Before
     public void setUp() throws Exception {
+        GlossarySnapshotCache.getInstance().clear();
         SpracheForm spracheForm = EasyMock.createMock(SpracheForm.class);
         EasyMock.expect(spracheForm.getLocale()).andReturn(Locale.ENGLISH).anyTimes();
         EasyMock.replay(spracheForm);
@@ -111,16 +119,22 @@ public class VocabularyEnricherTest {
         PowerMock.replay(VocabularyAPIManager.class);
         EasyMock.replay(vocabularyAPIManager);
 
-        ExtendedVocabularyRecord bentschen = createRecord("Bentschen", "Bentschen", "Der Ort Namens Bentschen");
-        ExtendedVocabularyRecord altBentschen = createRecord("Alt-Bentschen", "Alt-Bentschen", "Der Ortsteil Alt-Bentschen");
-        ExtendedVocabularyRecord neuBentschen = createRecord("Neu-Bentschen", "Neu-Bentschen", "Der Ortsteil Neu-Bentschen");
+        bentschen = createRecord("Bentschen", "Bentschen", "Der Ort Namens Bentschen");
+        altBentschen = createRecord("Alt-Bentschen", "Alt-Bentschen", "Der Ortsteil Alt-Bentschen");
+        neuBentschen = createRecord("Neu-Bentschen", "Neu-Bentschen", "Der Ortsteil Neu-Bentschen");
 
         VocabularyRecordPageResult resultPage = new VocabularyRecordPageResult();
         resultPage.setContent(List.of(bentschen, altBentschen, neuBentschen));
+        pages = List.of(resultPage);
         VocabularyRecordAPI.VocabularyRecordQueryBuilder query = EasyMock.createMock(VocabularyRecordAPI.VocabularyRecordQueryBuilder.class);
         EasyMock.expect(query.search(EasyMock.anyString())).andReturn(query).anyTimes();
         EasyMock.expect(query.all()).andReturn(query).anyTimes();
-        EasyMock.expect(query.request()).andReturn(resultPage).anyTimes();
+        EasyMock.expect(query.pageSize(EasyMock.anyInt())).andReturn(query).anyTimes();
+        EasyMock.expect(query.page(EasyMock.anyInt())).andAnswer(() -> {
+            requestedPage = (Integer) EasyMock.getCurrentArguments()[0];
+            return query;
+        }).anyTimes();
+        EasyMock.expect(query.request()).andAnswer(() -> pages.get(requestedPage)).anyTimes();
         EasyMock.replay(query);
         EasyMock.expect(vocabularyRecordAPI.list(EasyMock.anyLong())).andReturn(query).anyTimes();
         EasyMock.replay(vocabularyRecordAPI);
@@ -146,6 +160,32 @@ public class VocabularyEnricherTest {
         System.out.println(enrichedTestimony);
     }
 
+    @Test
+    public void testSmallerPagesThanRequested() {
+        // the server returns at most two records per page
+        pages = List.of(createPage(0, 2, 3, bentschen, altBentschen), createPage(1, 2, 3, neuBentschen));
+
+        VocabularyEnricher enricher = new VocabularyEnricher();
+        enricher.load("Glossary");
+
+        Assert.assertEquals(3, enricher.getSnapshot().getRecordCount());
+        Assert.assertEquals(List.of("Alt-Bentschen", "Neu-Bentschen", "Bentschen"), enricher.getSnapshot().getKeywords());
+        Assert.assertEquals("<span>Neu-Bentschen<note><term>Neu-Bentschen</term>Der Ortsteil Neu-Bentschen</note></span>",
+                enricher.enrich("Neu-Bentschen"));
+    }
+
+    private VocabularyRecordPageResult createPage(int number, int size, int totalElements, ExtendedVocabularyRecord... records) {
+        PageInformation pageInformation = new PageInformation();
+        pageInformation.setNumber(number);
+        pageInformation.setSize(size);
+        pageInformation.setTotalElements(totalElements);
+        pageInformation.setTotalPages((totalElements + size - 1) / size);
+        VocabularyRecordPageResult page = new VocabularyRecordPageResult();
+        page.setContent(List.of(records));
+        page.setPage(pageInformation);
+        return page;
+    }
+
     private List<FieldDefinition> prepareSchemaDefinitions() {
         List<FieldDefinition> result = new LinkedList<>();
         result.add(createFieldDefinition("Title", true, true));
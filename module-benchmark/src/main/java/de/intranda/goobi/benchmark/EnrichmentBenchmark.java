@@ -0,0 +1,114 @@
+package de.intranda.goobi.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.intranda.goobi.utils.GlossaryIndexFile;
+import de.intranda.goobi.utils.GlossarySnapshot;
+import de.intranda.goobi.utils.GlossarySnapshotCache;
+import de.intranda.goobi.utils.VocabularyEnricher;
+
+/**
+ * Glossary enrichment of the testimony. The glossary is loaded from an index file, so no vocabulary server is needed. The small glossary has
+ * the entries of the unit test, the large one adds synthetic keywords to reach the size of the production glossary
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EnrichmentBenchmark {
+
+    private static final int LARGE_GLOSSARY_SIZE = 20000;
+
+    @Param({ "small", "large" })
+    public String glossary;
+
+    @Param({ "1", "10" })
+    public int scale;
+
+    private Path indexFile;
+    private VocabularyEnricher enricher;
+    private String text;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        List<String> keywords = new ArrayList<>(List.of("Alt-Bentschen", "Neu-Bentschen", "Bentschen", "Elberfeld", "Polenaktion"));
+        if ("large".equals(glossary)) {
+            keywords.addAll(createKeywords(LARGE_GLOSSARY_SIZE - keywords.size()));
+        }
+        // the enricher expects the keywords in processing order, long keywords first
+        keywords.sort(Comparator.comparingInt(String::length)
+                .reversed());
+        List<String> notes = new ArrayList<>(keywords.size());
+        for (String keyword : keywords) {
+            notes.add("<note><term>" + keyword + "</term>Description of " + keyword + "</note>");
+        }
+        String vocabularyName = "benchmark-" + glossary;
+        indexFile = Files.createTempFile("glossary", ".idx");
+        GlossaryIndexFile.write(new GlossarySnapshot(vocabularyName, 1, keywords.size(), keywords, notes), indexFile);
+        GlossarySnapshotCache.getInstance()
+                .invalidate(vocabularyName);
+
+        enricher = new VocabularyEnricher();
+        enricher.setIndexFile(indexFile);
+        enricher.setOffline(true);
+        enricher.load(vocabularyName);
+        text = Fixtures.testimony(scale);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(indexFile);
+    }
+
+    @Benchmark
+    public String enrich() {
+        return enricher.enrich(text);
+    }
+
+    /**
+     * @return distinct random words, some of them with a hyphen like the place names in the glossary
+     */
+    private static Set<String> createKeywords(int count) {
+        Random random = new Random(42);
+        Set<String> keywords = new LinkedHashSet<>();
+        while (keywords.size() < count) {
+            StringBuilder keyword = new StringBuilder();
+            keyword.append((char) ('A' + random.nextInt(26)));
+            int length = 3 + random.nextInt(10);
+            for (int i = 0; i < length; i++) {
+                keyword.append((char) ('a' + random.nextInt(26)));
+            }
+            if (random.nextInt(10) == 0) {
+                keyword.insert(0, "Neu-");
+            }
+            keywords.add(keyword.toString());
+        }
+        return keywords;
+    }
+}
@@ -0,0 +1,69 @@
+package de.intranda.goobi.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Inputs of the benchmarks: a testimony and the document PI_a_No62, and copies of them scaled to larger sizes
+ *
+ */
+final class Fixtures {
+
+    private static final String TESTIMONY = "/testimony.html";
+    private static final String DOCUMENT = "/PI_a_No62.xml";
+
+    private Fixtures() {
+    }
+
+    /**
+     * @param scale number of copies
+     * @return the testimony, repeated the given number of times
+     */
+    static String testimony(int scale) {
+        return read(TESTIMONY).repeat(scale);
+    }
+
+    /**
+     * @param scale number of copies
+     * @return the body of the document PI_a_No62, repeated the given number of times
+     */
+    static String document(int scale) {
+        String document = read(DOCUMENT);
+        int start = document.indexOf("<body>") + "<body>".length();
+        int end = document.indexOf("</body>", start);
+        return document.substring(start, end)
+                .repeat(scale);
+    }
+
+    /**
+     * @param scale number of copies
+     * @return all paragraphs of the document PI_a_No62, which is how transcriptions are passed to the TEI export, repeated the given number of
+     *         times
+     */
+    static List<String> documentParagraphs(int scale) {
+        String body = document(scale);
+        List<String> paragraphs = new ArrayList<>();
+        int start = body.indexOf("<p>");
+        while (start >= 0) {
+            int end = body.indexOf("</p>", start) + "</p>".length();
+            paragraphs.add(body.substring(start, end));
+            start = body.indexOf("<p>", end);
+        }
+        return paragraphs;
+    }
+
+    private static String read(String resource) {
+        try (InputStream in = Fixtures.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing benchmark fixture " + resource);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package de.intranda.goobi.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.intranda.goobi.ocr.tei.HtmlToTEIConvert;
+import de.intranda.goobi.ocr.tei.HtmlToTEIConvert.ConverterMode;
+import de.intranda.goobi.ocr.tei.HtmlToTEIConvert.Engine;
+
+/**
+ * Conversion of html to TEI with both engines in both modes
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HtmlToTEIConvertBenchmark {
+
+    @Param({ "annotation", "resource" })
+    public ConverterMode mode;
+
+    @Param({ "regex", "token" })
+    public Engine engine;
+
+    @Param({ "testimony", "document" })
+    public String input;
+
+    @Param({ "1", "10" })
+    public int scale;
+
+    private HtmlToTEIConvert converter;
+    private String text;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        converter = new HtmlToTEIConvert(mode, engine);
+        text = "document".equals(input) ? Fixtures.document(scale) : Fixtures.testimony(scale);
+    }
+
+    @Benchmark
+    public String convert() {
+        return converter.convert(text);
+    }
+}
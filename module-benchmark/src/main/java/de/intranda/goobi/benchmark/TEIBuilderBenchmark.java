@@ -0,0 +1,86 @@
+package de.intranda.goobi.benchmark;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jdom2.Document;
+import org.jdom2.JDOMException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.intranda.goobi.ocr.tei.EntityDecoder;
+import de.intranda.goobi.ocr.tei.TEIBuilder;
+
+/**
+ * Creation of TEI files from the paragraphs of the document PI_a_No62, as in memory document and streamed, and the entity resolution which
+ * TEIBuilder applies to each text segment
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TEIBuilderBenchmark {
+
+    @Param({ "1", "10" })
+    public int scale;
+
+    private List<String> paragraphs;
+    private TEIBuilder builder;
+    private String testimony;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        paragraphs = Fixtures.documentParagraphs(scale);
+        builder = createBuilder();
+        testimony = Fixtures.testimony(scale);
+    }
+
+    private TEIBuilder createBuilder() {
+        TEIBuilder result = new TEIBuilder().setLanguage("de");
+        for (String paragraph : paragraphs) {
+            result.addTextSegment(paragraph);
+        }
+        return result;
+    }
+
+    /**
+     * Adding the segments includes the processing of title attributes
+     */
+    @Benchmark
+    public TEIBuilder addTextSegments() {
+        return createBuilder();
+    }
+
+    @Benchmark
+    public Document build() throws JDOMException, IOException {
+        return builder.build();
+    }
+
+    @Benchmark
+    public void write() throws JDOMException, IOException {
+        builder.write(Writer.nullWriter());
+    }
+
+    /**
+     * The entity resolution of TEIBuilder
+     */
+    @Benchmark
+    public String unescape() {
+        return EntityDecoder.toXml(testimony);
+    }
+}